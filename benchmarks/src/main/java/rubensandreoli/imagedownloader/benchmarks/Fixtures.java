@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import rubensandreoli.imagedownloader.tasks.support.ImageInfo;
+import rubensandreoli.imagedownloader.tasks.support.Searcher;
+
+/**
+ * Pages saved with the benchmarks, so they run offline and always measure
+ * the same input.
+ * <br>
+ * {@code google-results.html}: reverse search results page, with the
+ * similar images listed in an {@code AF_initDataCallback} script.
+ * {@code gallery.html}: image gallery page, with thumbnails, links to the
+ * full images, pagination and external ads.
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class Fixtures {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final String GOOGLE_RESULTS = "google-results.html";
+    public static final String GOOGLE_URL = "https://www.google.com/search?tbs=simg:CAESlwIJ";
+    public static final String GALLERY = "gallery.html";
+    public static final String GALLERY_DOMAIN = "https://www.example-gallery.com";
+    public static final String GALLERY_URL = GALLERY_DOMAIN+"/gallery/2019/summer";
+
+    private static final String FOLDER = "/fixtures/";
+    // </editor-fold>
+
+    private Fixtures(){}
+
+    public static String read(String name){
+        try(InputStream in = Fixtures.class.getResourceAsStream(FOLDER+name)){
+            if(in == null) throw new IllegalArgumentException(name+" not found");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public static Document parse(String name, String url){
+        return Jsoup.parse(read(name), url);
+    }
+
+    /**
+     * @return the similar images listed in the results page
+     */
+    public static List<ImageInfo> similars(){
+        final List<ImageInfo> images = new ArrayList<>();
+        Searcher.parseResults(parse(GOOGLE_RESULTS, GOOGLE_URL), images);
+        return images;
+    }
+
+}
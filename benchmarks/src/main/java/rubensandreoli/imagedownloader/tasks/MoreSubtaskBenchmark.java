@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rubensandreoli.imagedownloader.benchmarks.Fixtures;
+import rubensandreoli.imagedownloader.tasks.support.Downloader;
+import rubensandreoli.imagedownloader.tasks.support.ImageInfo;
+import rubensandreoli.imagedownloader.tasks.support.TaskJournal;
+
+/**
+ * Sequence discovery over the similar images of a results page, repeated
+ * {@code searches} times, as for a folder with that many source images.
+ * Nothing is downloaded: sequences only start in post-processing.
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoreSubtaskBenchmark {
+
+    @Param({"1", "50"})
+    private int searches;
+
+    private List<ImageInfo> similars;
+    private Downloader downloader;
+
+    @Setup
+    public void setup(){
+        similars = Fixtures.similars();
+        downloader = new Downloader();
+    }
+
+    @Benchmark
+    public MoreSubtask processing(){
+        final MoreSubtask subtask = new MoreSubtask(null);
+        final TaskJournal journal = new TaskJournal();
+        for (int i = 0; i < searches; i++) {
+            journal.startNewLog(true);
+            subtask.processing(journal, downloader, null, similars);
+            journal.reportCurrentLog();
+        }
+        return subtask;
+    }
+
+}
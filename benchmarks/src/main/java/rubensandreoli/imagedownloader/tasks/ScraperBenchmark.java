@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks;
+
+import java.util.concurrent.TimeUnit;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rubensandreoli.imagedownloader.benchmarks.Fixtures;
+import rubensandreoli.imagedownloader.tasks.ScraperTask.Webpage;
+
+/**
+ * Images and same site links collection from a gallery page, with and
+ * without the page parsing.
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScraperBenchmark {
+
+    private String html;
+    private Document document;
+
+    @Setup
+    public void setup(){
+        html = Fixtures.read(Fixtures.GALLERY);
+        document = Jsoup.parse(html, Fixtures.GALLERY_URL);
+    }
+
+    @Benchmark
+    public void webpage(Blackhole bh){
+        final Webpage page = new Webpage(Fixtures.GALLERY_DOMAIN, Fixtures.GALLERY_URL, document);
+        bh.consume(page.parseImages());
+        bh.consume(page.parseLinks());
+    }
+
+    @Benchmark
+    public void webpageParsing(Blackhole bh){
+        final Webpage page = new Webpage(Fixtures.GALLERY_DOMAIN, Fixtures.GALLERY_URL, Jsoup.parse(html, Fixtures.GALLERY_URL));
+        bh.consume(page.parseImages());
+        bh.consume(page.parseLinks());
+    }
+
+}
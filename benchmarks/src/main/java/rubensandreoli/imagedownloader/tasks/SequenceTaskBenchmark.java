@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
+
+/**
+ * Sequence URL masking, when a task is created, and the formatting of
+ * each index URL while it runs.
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceTaskBenchmark {
+
+    private static final int INDEXES = 100;
+
+    @Param({
+        "https://www.example-gallery.com/gallery/2019/summer/photo_{0001}.jpg",
+        "https://media.comic-reader.com/chapters/ch-045/page{1}.png"
+    })
+    private String url;
+
+    private SequenceTask task;
+
+    @Setup
+    public void setup() throws MalformedURLException, BoundsException{
+        task = new SequenceTask(url, INDEXES);
+    }
+
+    @Benchmark
+    public SequenceTask masking() throws MalformedURLException, BoundsException{
+        return new SequenceTask(url, INDEXES);
+    }
+
+    @Benchmark
+    public void formatting(Blackhole bh){
+        for (int i = task.getLowerBound(); i <= INDEXES; i++) {
+            bh.consume(task.getUrl(i));
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import rubensandreoli.commons.others.Level;
+
+/**
+ * Cost of reporting a download: with the log only passed along, as when
+ * the UI drops it from a frame, with it formatted, and through the
+ * progress bus. Best run with {@code -prof gc} to see allocation per report.
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressBenchmark {
+
+    private static final String URL = "https://www.example-gallery.com/gallery/2019/summer/photo_0042.jpg";
+    private static final String LOG_MASK = "Image [%s] downloaded in %d ms"; //url, duration
+    private static final int BUS_LOGS = 120;
+
+    private TaskJournal passed, formatted, posted;
+    private ProgressBus bus;
+    private ProgressLog log; //sinks keeping reports alive
+    private String messages;
+
+    @Setup
+    public void setup(){
+        passed = new TaskJournal();
+        passed.setProgressListener(l -> log = l);
+        formatted = new TaskJournal();
+        formatted.setProgressListener(l -> messages = l.getMessages());
+        bus = new ProgressBus(BUS_LOGS);
+        posted = new TaskJournal();
+        posted.setProgressListener(bus.listener(null));
+    }
+
+    @Benchmark
+    public void report(){
+        passed.report(Level.INFO, true, LOG_MASK, URL, 42);
+    }
+
+    @Benchmark
+    public void reportFormatted(){
+        formatted.report(Level.INFO, true, LOG_MASK, URL, 42);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void reportConcurrent(){
+        passed.report(Level.INFO, true, LOG_MASK, URL, 42);
+    }
+
+    @Benchmark
+    public void reportPosted(){
+        posted.report(Level.INFO, true, LOG_MASK, URL, 42);
+        if((posted.getProgress() & 1023) == 0) bus.drain(); //frames drained by the UI
+    }
+
+}
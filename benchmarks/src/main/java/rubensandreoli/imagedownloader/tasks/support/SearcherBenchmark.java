@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rubensandreoli.imagedownloader.benchmarks.Fixtures;
+
+/**
+ * Similar images extraction from a reverse search results page: the
+ * image link pattern alone, over the results script, and with the page
+ * parsing included.
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearcherBenchmark {
+
+    private String html;
+    private Document page;
+    private String script; //the one listing the images
+
+    @Setup
+    public void setup(){
+        html = Fixtures.read(Fixtures.GOOGLE_RESULTS);
+        page = Jsoup.parse(html, Fixtures.GOOGLE_URL);
+        for (Element e : page.getElementsByTag("script")) {
+            final String data = e.data();
+            if(data.contains("\"http") && data.startsWith("AF_initDataCallback")) script = data;
+        }
+        if(script == null) throw new IllegalStateException("results script not found");
+    }
+
+    @Benchmark
+    public List<ImageInfo> parseScript(){
+        final List<ImageInfo> images = new ArrayList<>();
+        Searcher.parseScript(script, images);
+        return images;
+    }
+
+    @Benchmark
+    public List<ImageInfo> parseResults(){
+        final List<ImageInfo> images = new ArrayList<>();
+        Searcher.parseResults(page, images);
+        return images;
+    }
+
+    @Benchmark
+    public List<ImageInfo> parseResultsPage(){
+        final List<ImageInfo> images = new ArrayList<>();
+        Searcher.parseResults(Jsoup.parse(html, Fixtures.GOOGLE_URL), images);
+        return images;
+    }
+
+}
@@ -1,6 +1,8 @@
 package rubensandreoli.imagedownloader;
 
+import java.awt.GraphicsEnvironment;
 import javax.swing.SwingUtilities;
+import rubensandreoli.imagedownloader.cli.HeadlessRunner;
 import rubensandreoli.imagedownloader.gui.GooglePanel;
 import rubensandreoli.imagedownloader.gui.ImageDownloader;
 import rubensandreoli.imagedownloader.gui.ScraperPanel;
@@ -9,6 +11,10 @@ import rubensandreoli.imagedownloader.gui.SequencePanel;
 public class Launcher {
     
     public static void main(String[] args) {
+        if(args.length != 0 || GraphicsEnvironment.isHeadless()){
+            HeadlessRunner.main(args);
+            return;
+        }
         
         //<editor-fold defaultstate="collapsed" desc=" Look and Feel ">
 	try {
@@ -27,7 +33,10 @@ public class Launcher {
         view.addTaskPanel(new ScraperPanel());
         view.addTaskPanel(new GooglePanel());
         
-        SwingUtilities.invokeLater(() -> view.setVisible(true));
+        SwingUtilities.invokeLater(() -> {
+            view.setVisible(true);
+            view.loadCheckpoint();
+        });
     }
 
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import rubensandreoli.imagedownloader.tasks.support.ProgressListener;
+import rubensandreoli.imagedownloader.tasks.support.ProgressLog;
+
+/**
+ * Writes progress messages to the standard output, prefixed by the task
+ * progress. Output is buffered and flushed at most every {@code FLUSH_INTERVAL}
+ * ms, and when the task ends, so busy tasks don't pay for a write per message.
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class ConsoleListener implements ProgressListener{
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    private static final String PROGRESS_MASK = "[%d/%d] "; //number, workload
+    private static final int BUFFER_SIZE = 8192; //bytes
+    private static final long FLUSH_INTERVAL = 1000; //ms
+    // </editor-fold>
+
+    private final PrintStream out;
+    private long lastFlush;
+
+    public ConsoleListener() {
+        out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BUFFER_SIZE), false, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void progressed(ProgressLog log) {
+        out.printf(PROGRESS_MASK, log.getNumber(), log.getWorkload());
+        out.print(log.getMessages());
+        final long now = System.currentTimeMillis();
+        if(log.isLast() || now - lastFlush >= FLUSH_INTERVAL){
+            out.flush();
+            lastFlush = now;
+        }
+    }
+
+    public synchronized void println(String message){
+        out.println(message);
+        out.flush();
+    }
+
+}
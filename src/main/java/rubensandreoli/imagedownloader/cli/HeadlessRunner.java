@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import rubensandreoli.commons.others.Configuration;
+import rubensandreoli.commons.others.Logger;
+import rubensandreoli.imagedownloader.tasks.DownloadTask;
+import rubensandreoli.imagedownloader.tasks.GoogleTask;
+import rubensandreoli.imagedownloader.tasks.ScraperTask;
+import rubensandreoli.imagedownloader.tasks.SequenceTask;
+import rubensandreoli.imagedownloader.tasks.Task.State;
+import rubensandreoli.imagedownloader.tasks.TaskSettings;
+import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
+import rubensandreoli.imagedownloader.tasks.support.VirtualThreads;
+
+/**
+ * Runs tasks without a display, one after another, writing progress to the
+ * standard output. Tasks are given as arguments, or one per line in a job
+ * file; blank lines and lines starting with {@code #} are ignored, and
+ * arguments with spaces can be double quoted.
+ * <pre>
+ * sequence &lt;url&gt; &lt;upper bound|auto&gt; &lt;destination&gt;
+ * scraper &lt;url&gt; &lt;destination&gt; [depth]
+ * google &lt;source&gt; [destination] [start index] [--larger] [--more]
+ * --jobs &lt;file&gt;
+ * </pre>
+ * Settings are read from the same configuration file as the window. The
+ * exit code is {@code 0} if every task completed, {@code 1} if any failed
+ * and {@code 2} if the arguments or the job file are invalid.
+ *
+ * References:
+ * https://docs.oracle.com/javase/8/docs/technotes/guides/lang/hook-design.html
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class HeadlessRunner {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final String JOBS_OPTION = "--jobs";
+    private static final String SEQUENCE = "sequence";
+    private static final String AUTO_BOUND = "auto";
+    private static final String SCRAPER = "scraper";
+    private static final String GOOGLE = "google";
+    private static final String LARGER_OPTION = "--larger";
+    private static final String MORE_OPTION = "--more";
+    private static final String COMMENT = "#";
+    private static final Pattern ARGUMENT_PATTERN = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+    private static final int EXIT_COMPLETED = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_INVALID = 2;
+
+    private static final String USAGE_MSG = "Usage:\n"
+            + "  sequence <url> <upper bound|auto> <destination>\n"
+            + "  scraper <url> <destination> [depth]\n"
+            + "  google <source> [destination] [start index] [--larger] [--more]\n"
+            + "  --jobs <file>";
+    private static final String INVALID_JOB_MSG_MASK = "Invalid task at line %d: %s"; //line, message
+    private static final String STARTING_MSG_MASK = "Starting task %d/%d: %s"; //number, total, task
+    private static final String FINISHED_MSG_MASK = "Task %d/%d finished: %s"; //number, total, state
+    // </editor-fold>
+
+    private final ConsoleListener console = new ConsoleListener();
+    private final List<DownloadTask> tasks = new ArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile DownloadTask currentTask; //interrupted on shutdown
+
+    public static void main(String[] args) {
+        Logger.log.setEnabled(Configuration.values.get("crash_log", true));
+        VirtualThreads.setEnabled(Configuration.values.get("virtual_threads", VirtualThreads.DEFAULT_ENABLED));
+        final HeadlessRunner runner = new HeadlessRunner();
+        try{
+            if(args.length == 2 && args[0].equals(JOBS_OPTION)){
+                runner.loadJobs(args[1]);
+            }else{
+                runner.addTask(Arrays.asList(args));
+            }
+        }catch(IllegalArgumentException | IOException ex){
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE_MSG);
+            System.exit(EXIT_INVALID);
+        }
+        System.exit(runner.run());
+    }
+
+    private void loadJobs(String file) throws IOException{
+        final List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i).trim();
+            if(line.isEmpty() || line.startsWith(COMMENT)) continue;
+            final List<String> arguments = new ArrayList<>();
+            final Matcher matcher = ARGUMENT_PATTERN.matcher(line);
+            while(matcher.find()) arguments.add(matcher.group(1) != null? matcher.group(1) : matcher.group(2));
+            try{
+                addTask(arguments);
+            }catch(IllegalArgumentException | IOException ex){
+                throw new IllegalArgumentException(String.format(INVALID_JOB_MSG_MASK, i+1, ex.getMessage()), ex);
+            }
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc=" TASKS ">
+    private void addTask(List<String> args) throws IOException{
+        if(args.isEmpty()) throw new IllegalArgumentException("missing task type");
+        final List<String> params = args.subList(1, args.size());
+        final DownloadTask task;
+        try{
+            switch(args.get(0)){
+                case SEQUENCE:
+                    task = createSequence(params);
+                    break;
+                case SCRAPER:
+                    task = createScraper(params);
+                    break;
+                case GOOGLE:
+                    task = createGoogle(params);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown task type "+args.get(0));
+            }
+        }catch(BoundsException | NumberFormatException ex){
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+        TaskSettings.configureConnection(task);
+        tasks.add(task);
+    }
+
+    private static DownloadTask createSequence(List<String> params) throws IOException, BoundsException{
+        requireCount(params, 3, 3);
+        final SequenceTask task = params.get(1).equals(AUTO_BOUND)? 
+                new SequenceTask(params.get(0)) : 
+                new SequenceTask(params.get(0), Integer.parseInt(params.get(1)));
+        TaskSettings.configureSequence(task);
+        task.setDestination(params.get(2));
+        return task;
+    }
+
+    private static DownloadTask createScraper(List<String> params) throws IOException, BoundsException{
+        requireCount(params, 2, 3);
+        final ScraperTask task = new ScraperTask(params.get(0), TaskSettings.SCRAPER_DEPTH_LIMIT);
+        TaskSettings.configureScraper(task);
+        task.setDestination(params.get(1));
+        if(params.size() == 3) task.setDepth(Integer.parseInt(params.get(2)));
+        return task;
+    }
+
+    private static DownloadTask createGoogle(List<String> params) throws IOException, BoundsException{
+        final List<String> positional = new ArrayList<>(params);
+        final boolean larger = positional.remove(LARGER_OPTION);
+        final boolean more = positional.remove(MORE_OPTION);
+        requireCount(positional, 1, 3);
+        final String source = positional.get(0);
+        final GoogleTask task = new GoogleTask(source, TaskSettings.GOOGLE_LINK_TEXT);
+        TaskSettings.configureGoogle(task);
+        task.setDestination(positional.size() > 1? positional.get(1) : source);
+        if(positional.size() > 2) task.setStartIndex(Integer.parseInt(positional.get(2)));
+        if(larger) task.addSubtask(TaskSettings.createLargerSubtask());
+        if(more) task.addSubtask(TaskSettings.createMoreSubtask());
+        return task;
+    }
+
+    private static void requireCount(List<String> params, int min, int max){
+        if(params.size() < min) throw new IllegalArgumentException("missing arguments");
+        if(params.size() > max) throw new IllegalArgumentException("unexpected argument "+params.get(max));
+    }
+    // </editor-fold>
+
+    private int run(){
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> { //SIGINT or SIGTERM: stop cleanly
+            final DownloadTask task = currentTask;
+            if(task != null) task.interrupt();
+            try {
+                finished.await(); //let the task close its files
+            } catch (InterruptedException ex) {}
+        }));
+        try{
+            boolean failed = false;
+            for (int i = 0; i < tasks.size(); i++) {
+                currentTask = tasks.get(i);
+                console.println(String.format(STARTING_MSG_MASK, i+1, tasks.size(), currentTask.getClass().getSimpleName()));
+                currentTask.setProgressListener(console);
+                currentTask.perform();
+                final State state = currentTask.getStatus();
+                console.println(String.format(FINISHED_MSG_MASK, i+1, tasks.size(), state));
+                if(state == State.INTERRUPTED) return EXIT_FAILED;
+                failed |= state != State.COMPLETED;
+            }
+            return failed? EXIT_FAILED : EXIT_COMPLETED;
+        }finally{
+            currentTask = null;
+            finished.countDown();
+        }
+    }
+
+}
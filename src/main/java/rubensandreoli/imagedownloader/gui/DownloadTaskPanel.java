@@ -16,39 +16,20 @@
  */
 package rubensandreoli.imagedownloader.gui;
 
-import rubensandreoli.commons.others.Configuration;
 import rubensandreoli.imagedownloader.tasks.DownloadTask;
-import rubensandreoli.imagedownloader.tasks.support.Downloader;
+import rubensandreoli.imagedownloader.tasks.TaskSettings;
 
 public abstract class DownloadTaskPanel extends TaskPanel<DownloadTask>{
     private static final long serialVersionUID = 1L;
 
-    // <editor-fold defaultstate="collapsed" desc=" CONFIGURATIONS ">
-    public static final int CONNECTION_TIMEOUT;
-    public static final int READ_TIMEOUT;
-    public static final int MIN_COOLDOWN;
-    public static final int MAX_COOLDOWN;
-    static{
-        CONNECTION_TIMEOUT = Configuration.values.get("connection_timeout", Downloader.DEFAULT_CONNECTION_TIMEOUT, 500);
-        READ_TIMEOUT = Configuration.values.get("read_timout",  Downloader.DEFAULT_READ_TIMEOUT, 1000);
-        MIN_COOLDOWN = Configuration.values.get("connection_cooldown_min", Downloader.DEFAULT_MIN_COOLDOWN, 0);
-        MAX_COOLDOWN = Configuration.values.get("connection_cooldown_max", Downloader.DEFAULT_MAX_COOLDOWN, MIN_COOLDOWN);
-    }
-    // </editor-fold>
-    
     public DownloadTaskPanel(String title) {
         super(title);
     }
 
     @Override
     protected boolean fireTaskCreated(DownloadTask task, String description, Object... args) {
-        task.setConnection(CONNECTION_TIMEOUT, READ_TIMEOUT, MIN_COOLDOWN, MAX_COOLDOWN);
-        task.setFailThreshold(getFailThreshold());
-        task.setMinFilesize(getMinFilesize());
+        TaskSettings.configureConnection(task);
         return super.fireTaskCreated(task, description, args);
     }
     
-    protected abstract int getFailThreshold();
-    protected abstract int getMinFilesize();
-    
 }
@@ -19,13 +19,11 @@ package rubensandreoli.imagedownloader.gui;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
 import javax.swing.JOptionPane;
-import rubensandreoli.commons.others.Configuration;
 import rubensandreoli.commons.utils.FileUtils;
 import rubensandreoli.imagedownloader.tasks.GoogleTask;
 import rubensandreoli.imagedownloader.tasks.LargerSubtask;
-import rubensandreoli.imagedownloader.tasks.MoreSubtask;
+import rubensandreoli.imagedownloader.tasks.TaskSettings;
 import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
-import rubensandreoli.imagedownloader.tasks.support.Searcher;
 
 /** 
  * References:
@@ -53,38 +51,7 @@ public class GooglePanel extends DownloadTaskPanel {
     private static final String INVALID_SOURCE_TITLE = "Invalid/Empty Folder";
     private static final String INVALID_SOURCE_MSG = "Please verify if the source folder is valid and contain supported images.\n";
     // </editor-fold>
-
-    // <editor-fold defaultstate="collapsed" desc=" CONFIGURATIONS "> 
-    private static final int FAIL_THREASHOLD;
-    private static final int MIN_FILESIZE; //bytes
-    private static final double FILESIZE_RATIO; //to source image
-    private static final String RESPONSE_LINK_TEXT; //pt-br
-    private static final String SUBFOLDER_LARGER;
-    private static final String SUBFOLDER_MORE;
-    private static final int LOWER_MARGIN;
-    private static final int UPPER_MARGIN;
-    private static final int MIN_DIMENSION;
-    private static final int SEQUENCE_LIMIT;
-    private static final double DIMENSION_RATIO;
-    private static final boolean SOURCE_NAME;
-    static{
-        FAIL_THREASHOLD = Configuration.values.get("google:fail_threashold", GoogleTask.DEFAULT_FAIL_THRESHOLD, 0);
-        RESPONSE_LINK_TEXT = Configuration.values.get("google:link_text_marker", Searcher.DEFAULT_LINK_TEXT);
-        MIN_FILESIZE = Configuration.values.get("google:filesize_min", GoogleTask.DEFAULT_MIN_FILESIZE, 0);
-        
-        SUBFOLDER_LARGER = Configuration.values.get("google-large:subfolder", "copies");
-        FILESIZE_RATIO = Configuration.values.get("google-large:filesize_ratio", LargerSubtask.DEFAULT_FILESIZE_RATIO, LargerSubtask.MIN_FILESIZE_RATIO);
-        DIMENSION_RATIO = Configuration.values.get("google-large:dimension_ratio", LargerSubtask.DEFAULT_DIMENSION_RATIO, LargerSubtask.MIN_DIMENSION_RATIO);
-        SOURCE_NAME = Configuration.values.get("google-large:source_name", LargerSubtask.DEFAULT_SOURCE_NAME);
-        
-        SUBFOLDER_MORE = Configuration.values.get("google-more:subfolder", "more");
-        LOWER_MARGIN = Configuration.values.get("google-more:lower_margin", MoreSubtask.DEFAULT_LOWER_MARGIN, 0);
-        UPPER_MARGIN = Configuration.values.get("google-more:upper_margin", MoreSubtask.DEFAULT_UPPER_MARGIN, 0);
-        MIN_DIMENSION = Configuration.values.get("google-more:min_dimension", MoreSubtask.DEFAULT_MIN_DIMENSION, MoreSubtask.MIN_MIN_DIMENSION);
-        SEQUENCE_LIMIT = Configuration.values.get("google-more:sequence_limit", MoreSubtask.DEFAULT_SEQUENCE_LIMIT, 0);
-    }
-    // </editor-fold>
-
+    
     public GooglePanel() {
         super(TITLE);
         initComponents();
@@ -240,7 +207,7 @@ public class GooglePanel extends DownloadTaskPanel {
         if(destination.isBlank()) destination = source;
         
         try {
-            final GoogleTask task = new GoogleTask(source, RESPONSE_LINK_TEXT);
+            final GoogleTask task = new GoogleTask(source, TaskSettings.GOOGLE_LINK_TEXT);
             
             try {
                 task.setDestination(destination);
@@ -265,22 +232,15 @@ public class GooglePanel extends DownloadTaskPanel {
                 );
                 return;
             }
+            TaskSettings.configureGoogle(task);
             
             if(tbtLarger.isSelected()){
-                final LargerSubtask larger = new LargerSubtask(SUBFOLDER_LARGER);
+                final LargerSubtask larger = TaskSettings.createLargerSubtask();
                 larger.setRetrySmall(tbtSize.isSelected());
-                larger.setFilesizeRatio(FILESIZE_RATIO);
-                larger.setDimensionRatio(DIMENSION_RATIO);
-                larger.setSourceName(SOURCE_NAME);
                 task.addSubtask(larger);
             }
             if(tbtMore.isSelected()){
-                final MoreSubtask more = new MoreSubtask(SUBFOLDER_MORE); 
-                more.setLowerMargin(LOWER_MARGIN);
-                more.setUpperMargin(UPPER_MARGIN);
-                more.setMinDimension(MIN_DIMENSION);
-                more.setSequenceLimit(SEQUENCE_LIMIT);
-                task.addSubtask(more);
+                task.addSubtask(TaskSettings.createMoreSubtask());
             }
             
             fireTaskCreated(task, DESCRIPTION_MASK,
@@ -328,15 +288,5 @@ public class GooglePanel extends DownloadTaskPanel {
     public Integer getMnemonic() {
         return MNEMONIC;
     }
-
-    @Override
-    protected int getFailThreshold() {
-        return FAIL_THREASHOLD;
-    }
-
-    @Override
-    protected int getMinFilesize() {
-        return MIN_FILESIZE;
-    }
       
 }
@@ -29,8 +29,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -40,16 +49,25 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import rubensandreoli.commons.others.Configuration;
 import rubensandreoli.commons.others.Level;
 import rubensandreoli.commons.others.Logger;
 import rubensandreoli.commons.swing.AboutDialog;
 import rubensandreoli.commons.swing.RecycledTextArea;
 import rubensandreoli.commons.utils.FileUtils;
+import rubensandreoli.imagedownloader.tasks.DownloadTask;
 import rubensandreoli.imagedownloader.tasks.Task;
 import rubensandreoli.imagedownloader.tasks.Task.State;
+import rubensandreoli.imagedownloader.tasks.TaskSettings;
+import rubensandreoli.imagedownloader.tasks.support.ProgressBus;
+import rubensandreoli.imagedownloader.tasks.support.ProgressBus.Counter;
 import rubensandreoli.imagedownloader.tasks.support.ProgressLog;
+import rubensandreoli.imagedownloader.tasks.support.TaskScheduler;
+import rubensandreoli.imagedownloader.tasks.support.TaskScheduler.SchedulerListener;
+import rubensandreoli.imagedownloader.tasks.support.VirtualThreads;
 
 /** 
  * References:
@@ -73,6 +91,8 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
     private static final String PROGRAM_VERSION = "1.1.0";
     private static final String PROGRAM_YEAR = "2020";
     private static final String LOG_FILE = "history.log";
+    private static final Path CHECKPOINT_FILE = Paths.get("tasks.checkpoint");
+    private static final Path CHECKPOINT_TEMP = Paths.get("tasks.checkpoint.tmp");
     private static final int SHUTDOWN_INTERVAL = 10; //seconds
     private static final int SHUTDOWN_EVENT_CODE = 101;
     
@@ -88,6 +108,8 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
     private static final String COMPLETE_MSG = "All available files were downloaded.";
     private static final String ABORTED_TITLE = "Tasks Aborted";
     private static final String ABORTED_MSG = "All remaining tasks were stopped.";
+    private static final String RESUME_TITLE = "Resume Tasks";
+    private static final String RESUME_MSG = "%d unfinished task(s) from the last session were found.\nDo you wish to resume them?"; //tasks
     // </editor-fold>
     
     // <editor-fold defaultstate="collapsed" desc=" CONFIGURATIONS ">
@@ -96,24 +118,36 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
     public static final boolean LOG_INVERTED;
     public static final Font LOG_FONT;
     public static final int SAVE_INTERVAL;
+    public static final int CHECKPOINT_INTERVAL;
+    public static final int MAX_RUNNING;
+    public static final int MAX_PER_HOST;
+    public static final boolean VIRTUAL_THREADS;
+    public static final int FRAME_INTERVAL; //ms
     static{
         DEGUB = Configuration.values.get("crash_log", true);
         LOG_SIZE = Configuration.values.get("log_size", RecycledTextArea.DEFAULT_MAX_SIZE, RecycledTextArea.MIN_SIZE);
         LOG_INVERTED = Configuration.values.get("log_inverted", false);
         LOG_FONT = new Font("Segoe UI", 0, Configuration.values.get("font_size", 10, 8));
         SAVE_INTERVAL = Configuration.values.get("log_timer", 10, 0);
+        CHECKPOINT_INTERVAL = Configuration.values.get("checkpoint_timer", 60, 0);
+        MAX_RUNNING = Configuration.values.get("tasks_running_max", TaskScheduler.DEFAULT_MAX_RUNNING, TaskScheduler.MIN_MAX_RUNNING);
+        MAX_PER_HOST = Configuration.values.get("tasks_per_host_max", TaskScheduler.DEFAULT_MAX_PER_HOST, TaskScheduler.MIN_MAX_PER_HOST);
+        VIRTUAL_THREADS = Configuration.values.get("virtual_threads", VirtualThreads.DEFAULT_ENABLED);
+        FRAME_INTERVAL = 1000/Math.min(Configuration.values.get("progress_rate", ProgressBus.DEFAULT_FRAME_RATE, ProgressBus.MIN_FRAME_RATE), ProgressBus.MAX_FRAME_RATE);
     }
     // </editor-fold>
       
     private ConcurrentLinkedDeque<Task> tasks = new ConcurrentLinkedDeque<>(); //set by both threads
-    private SwingWorker<Void, ProgressLog> worker;
-    private volatile Task currentTask; //set by worker thread
-    private ScheduledExecutorService logger;
+    private Map<Task, TaskTable.TaskAdapter> adapters = new ConcurrentHashMap<>(); //type and description of queued tasks
+    private TaskWorker worker;
+    private ScheduledExecutorService timer;
+    private boolean closing; //keep the checkpoint for the next session
     private Taskbar taskbar = Taskbar.getTaskbar();
 
     public ImageDownloader() { 
         initComponents();
         Logger.log.setEnabled(DEGUB);
+        VirtualThreads.setEnabled(VIRTUAL_THREADS);
         
         setIconImage(FileUtils.loadIcon(PROGRAM_ICON).getImage());
         lblAbout.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
@@ -295,53 +329,15 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
         txaLogs.clear();
         btnStart.setEnabled(false);
         pgbTasks.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-        if(SAVE_INTERVAL != 0){
-            logger = Executors.newSingleThreadScheduledExecutor();
-            logger.scheduleAtFixedRate(this::saveLog, SAVE_INTERVAL, SAVE_INTERVAL, TimeUnit.MINUTES);  
+        if(SAVE_INTERVAL != 0 || CHECKPOINT_INTERVAL != 0){
+            timer = Executors.newSingleThreadScheduledExecutor();
+            if(SAVE_INTERVAL != 0) timer.scheduleAtFixedRate(this::saveLog, SAVE_INTERVAL, SAVE_INTERVAL, TimeUnit.MINUTES);  
+            if(CHECKPOINT_INTERVAL != 0) timer.scheduleAtFixedRate(this::saveCheckpoint, CHECKPOINT_INTERVAL, CHECKPOINT_INTERVAL, TimeUnit.SECONDS);  
         }
         
-        //PERFORM TASKS IN ANOTHER THREAD AND UPDATE UI
-        worker = new SwingWorker<>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                while(!tasks.isEmpty()){
-                    if(isCancelled()) break;
-                    currentTask = tasks.peekFirst();
-                    currentTask.setProgressListener(l -> publish(l));
-                    currentTask.perform();
-                    tasks.removeFirst(); //remove task after it's done
-                }
-                return null;
-            }
-
-            @Override
-            protected void process(List<ProgressLog> logs) {
-                for(ProgressLog log : logs) {
-                    if(log.isFirst()) tblTasks.refresh();
-                    txaLogs.addText(log.getMessages());
-                }
-                final ProgressLog lastLog = logs.get(logs.size()-1);
-                final int number = lastLog.getNumber();
-                final int workload = lastLog.getWorkload();
-                pgbTasks.setValue(number);
-                pgbTasks.setMaximum(workload);
-                try {taskbar.setWindowProgressValue(ImageDownloader.this, (100*number)/workload);
-                } catch(RuntimeException ex){}
-                pgbTasks.setToolTipText(String.format(PROGRESSBAR_TOOLTIP_MASK, number, workload));
-            }
-
-            @Override
-            protected void done() {
-                worker = null;
-                currentTask = null;
-                ImageDownloader.this.saveLog();
-                ImageDownloader.this.clear(isCancelled());
-                if(logger != null) try{ logger.shutdownNow();}catch(RuntimeException ex){}
-                if(!isCancelled() && chkShutdown.isSelected()){
-                    ImageDownloader.this.formWindowClosing(new WindowEvent(ImageDownloader.this, SHUTDOWN_EVENT_CODE));
-                }
-            }
-        };
+        //PERFORM TASKS IN OTHER THREADS AND UPDATE UI
+        worker = new TaskWorker();
+        tasks.forEach(worker::schedule);
         worker.execute();
     }//GEN-LAST:event_btnStartActionPerformed
 
@@ -350,7 +346,7 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
     }//GEN-LAST:event_btnStopActionPerformed
 
     private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
-        if(currentTask != null){
+        if(worker != null){
             if(JOptionPane.showConfirmDialog(
                     this, 
                     CLOSING_MSG, 
@@ -359,8 +355,12 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
                     JOptionPane.QUESTION_MESSAGE) != JOptionPane.YES_OPTION) 
                 return;
         }
+        if(timer != null) timer.shutdownNow();
+        if(!tasks.isEmpty()){
+            closing = true;
+            saveCheckpoint(); //before interrupting, so the current task is saved as it is
+        }
         stop(true);
-        if(logger != null) logger.shutdownNow();
         saveLog();
         Configuration.values.save();
         if(evt.getID() == SHUTDOWN_EVENT_CODE){
@@ -398,9 +398,95 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
     private rubensandreoli.commons.swing.RecycledTextArea txaLogs;
     // End of variables declaration//GEN-END:variables
     
+    // <editor-fold defaultstate="collapsed" desc=" WORKER "> 
+    private class TaskWorker extends SwingWorker<Void, Void> implements SchedulerListener{
+
+        private final TaskScheduler scheduler = new TaskScheduler(MAX_RUNNING, MAX_PER_HOST);
+        private final ProgressBus bus = new ProgressBus(LOG_SIZE); //older logs would be recycled right away
+        private final Timer frames = new Timer(FRAME_INTERVAL, e -> render(bus.drain()));
+        private final Map<Task, Counter> progress = new HashMap<>(); //latest counters of each task; event thread only
+
+        private TaskWorker() {
+            scheduler.setListener(this);
+            frames.start();
+        }
+
+        /**
+         * @return {@code false} if the worker is already finishing
+         */
+        private boolean schedule(Task task){
+            task.setProgressListener(bus.listener(task));
+            return scheduler.submit(task);
+        }
+
+        private boolean unschedule(Task task){
+            return scheduler.remove(task);
+        }
+
+        private boolean isRunning(Task task){
+            return scheduler.isRunning(task);
+        }
+
+        private void cancelTasks(){
+            scheduler.cancel();
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            scheduler.awaitAndClose();
+            return null;
+        }
+
+        @Override
+        public void taskStarted(Task task) {}
+
+        @Override
+        public void taskFinished(Task task) {
+            adapters.remove(task);
+            tasks.remove(task); //remove task after it's done
+            SwingUtilities.invokeLater(tblTasks::refresh);
+        }
+
+        private void render(ProgressBus.Frame frame) {
+            if(frame.isEmpty()) return;
+            if(frame.hasStarted()) tblTasks.refresh();
+            for(ProgressLog log : frame.getLogs()) {
+                txaLogs.addText(log.getMessages()); //formatted only now
+            }
+            progress.putAll(frame.getCounters());
+            frame.getCounters().keySet().forEach(tblTasks::refresh);
+            int number = 0, workload = 0;
+            for(Counter counter : progress.values()){
+                number += counter.getNumber();
+                workload += counter.getWorkload();
+            }
+            pgbTasks.setValue(number);
+            pgbTasks.setMaximum(workload);
+            if(workload != 0) try {taskbar.setWindowProgressValue(ImageDownloader.this, (int)((100L*number)/workload));
+            } catch(RuntimeException ex){}
+            pgbTasks.setToolTipText(String.format(PROGRESSBAR_TOOLTIP_MASK, number, workload));
+        }
+
+        @Override
+        protected void done() {
+            frames.stop();
+            render(bus.drain()); //last events
+            worker = null;
+            ImageDownloader.this.saveLog();
+            if(timer != null) try{ timer.shutdownNow();}catch(RuntimeException ex){}
+            if(!closing) ImageDownloader.this.deleteCheckpoint();
+            ImageDownloader.this.clear(isCancelled());
+            if(!isCancelled() && chkShutdown.isSelected()){
+                ImageDownloader.this.formWindowClosing(new WindowEvent(ImageDownloader.this, SHUTDOWN_EVENT_CODE));
+            }
+        }
+        
+    }
+    // </editor-fold>
+    
     private void stop(boolean interrupt){
-        if(worker != null && currentTask != null){
-            currentTask.interrupt();
+        if(worker != null){
+            worker.cancelTasks();
             worker.cancel(interrupt);
         }
     }
@@ -430,6 +516,79 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
         }
     }
     
+    // <editor-fold defaultstate="collapsed" desc=" CHECKPOINT "> 
+    private synchronized void saveCheckpoint(){
+        final List<TaskTable.TaskAdapter> queued = new ArrayList<>();
+        final List<DownloadTask.Checkpoint> checkpoints = new ArrayList<>();
+        for (Task task : tasks) {
+            final TaskTable.TaskAdapter adapter = adapters.get(task);
+            if(adapter == null || !(task instanceof DownloadTask) || task.getStatus() == State.COMPLETED) continue;
+            queued.add(adapter);
+            checkpoints.add(((DownloadTask)task).checkpoint());
+        }
+        try{
+            try(var os = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(CHECKPOINT_TEMP)))){
+                os.writeInt(queued.size());
+                for (int i = 0; i < queued.size(); i++) {
+                    os.writeUTF(queued.get(i).type);
+                    os.writeUTF(queued.get(i).description);
+                    os.writeObject(checkpoints.get(i));
+                }
+            }
+            try{
+                Files.move(CHECKPOINT_TEMP, CHECKPOINT_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }catch(AtomicMoveNotSupportedException ex){
+                Files.move(CHECKPOINT_TEMP, CHECKPOINT_FILE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.log.print(Level.CRITICAL, "failed saving checkpoint file "+CHECKPOINT_FILE, ex);
+        }
+    }
+    
+    /**
+     * Offers to queue again the tasks left unfinished in the last session.
+     * Must be called on the event dispatch thread, after the window is shown.
+     */
+    public void loadCheckpoint(){
+        if(!Files.isRegularFile(CHECKPOINT_FILE)) return;
+        try(var is = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(CHECKPOINT_FILE)))){
+            final int count = is.readInt();
+            if(count > 0 && JOptionPane.showConfirmDialog(
+                    this, 
+                    String.format(RESUME_MSG, count), 
+                    RESUME_TITLE, 
+                    JOptionPane.YES_NO_OPTION, 
+                    JOptionPane.QUESTION_MESSAGE) == JOptionPane.YES_OPTION){
+                for (int i = 0; i < count; i++) {
+                    final String type = is.readUTF();
+                    final String description = is.readUTF();
+                    final var checkpoint = (DownloadTask.Checkpoint) is.readObject();
+                    try{
+                        final DownloadTask task = checkpoint.restore();
+                        TaskSettings.configureConnection(task);
+                        taskCreated(type, task, description);
+                    }catch(IOException ex){ //source or destination no longer available
+                        Logger.log.print(Level.WARNING, "failed resuming task "+description, ex);
+                    }
+                }
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            Logger.log.print(Level.CRITICAL, "failed loading checkpoint file "+CHECKPOINT_FILE, ex);
+        } catch(SecurityException ex){
+            securityAlert();
+        }
+        deleteCheckpoint();
+    }
+    
+    private void deleteCheckpoint(){
+        try {
+            Files.deleteIfExists(CHECKPOINT_FILE);
+        } catch (IOException | SecurityException ex) {
+            Logger.log.print(Level.WARNING, "failed deleting checkpoint file "+CHECKPOINT_FILE, ex);
+        }
+    }
+    // </editor-fold>
+    
     private void securityAlert(){
         JOptionPane.showMessageDialog(this, SECURITY_MSG, SECURITY_TITLE, JOptionPane.ERROR_MESSAGE);
     }
@@ -458,7 +617,10 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
         taskbar.setWindowProgressState(ImageDownloader.this, Taskbar.State.OFF);
         pgbTasks.setToolTipText(null);
         pgbTasks.setValue(0);
-        if(isCanceled) tasks.clear(); //if cancelled remove remaining tasks
+        if(isCanceled){ //if cancelled remove remaining tasks
+            tasks.clear();
+            adapters.clear();
+        }
         btnStart.setEnabled(true);
         btnStop.setEnabled(true);
     }
@@ -475,18 +637,24 @@ public class ImageDownloader extends javax.swing.JFrame implements TaskPanelList
     @Override
     public void taskCreated(String type, Task task, String description) {
         if(tasks.isEmpty()) tblTasks.clear();
+        final var adapter = new TaskTable.TaskAdapter(type, task, description);
+        adapters.put(task, adapter);
         tasks.addLast(task);
-        tblTasks.addTask(type, task, description);
+        tblTasks.addTask(adapter);
+        if(worker != null && !worker.schedule(task)){
+            task.setProgressListener(null); //queued for the next start
+        }
     }
 
     @Override
     public boolean taskRemoved(Task task) {
         boolean removed = false;
-        if(task.getStatus() == State.WAITING){
+        if(task.getStatus() == State.WAITING && (worker == null || worker.unschedule(task))){
             tasks.remove(task);
+            adapters.remove(task);
             removed = true;
-        }else if(task == currentTask){
-            currentTask.interrupt();
+        }else if(worker != null && worker.isRunning(task)){
+            task.interrupt();
         }
         return removed;
     }
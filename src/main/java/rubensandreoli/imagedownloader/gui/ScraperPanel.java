@@ -19,10 +19,10 @@ package rubensandreoli.imagedownloader.gui;
 import java.awt.event.KeyEvent;
 import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
 import rubensandreoli.imagedownloader.tasks.ScraperTask;
+import rubensandreoli.imagedownloader.tasks.TaskSettings;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import javax.swing.JOptionPane;
-import rubensandreoli.commons.others.Configuration;
 
 public class ScraperPanel extends DownloadTaskPanel {
     private static final long serialVersionUID = 1L;
@@ -40,19 +40,10 @@ public class ScraperPanel extends DownloadTaskPanel {
     private static final String INVALID_URL_MSG = "Please verify if the link provided is valid.\n";
     // </editor-fold>
     
-    // <editor-fold defaultstate="collapsed" desc=" CONFIGURATIONS "> 
-    public static final int DEPTH_LIMIT; 
-    public static final int MIN_FILESIZE;
-    static{
-        DEPTH_LIMIT = Configuration.values.get("scraper:depth_limit", ScraperTask.DEFAULT_DEPTH_LIMIT, 0);
-        MIN_FILESIZE = Configuration.values.get("scraper:filesize_min", ScraperTask.DEFAULT_MIN_FILESIZE, 0);
-    }
-    // </editor-fold>
-    
     public ScraperPanel() {
         super(TITLE);
         initComponents();
-        txfNumber.setMaxValue(DEPTH_LIMIT);
+        txfNumber.setMaxValue(TaskSettings.SCRAPER_DEPTH_LIMIT);
     }
     
     @SuppressWarnings("unchecked")
@@ -82,7 +73,7 @@ public class ScraperPanel extends DownloadTaskPanel {
         });
 
         txfNumber.setHorizontalAlignment(javax.swing.JTextField.CENTER);
-        txfNumber.setToolTipText("<html><b>Depth of the sub-links</b> that the scraper will crawl to.<br><i>Depth limit = "+DEPTH_LIMIT+"</i></html>");
+        txfNumber.setToolTipText("<html><b>Depth of the sub-links</b> that the scraper will crawl to.<br><i>Depth limit = "+TaskSettings.SCRAPER_DEPTH_LIMIT+"</i></html>");
 
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
@@ -125,7 +116,7 @@ public class ScraperPanel extends DownloadTaskPanel {
 
     private void btnAddActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnAddActionPerformed
         try {
-            final ScraperTask task = new ScraperTask(txfUrl.getText(), DEPTH_LIMIT);
+            final ScraperTask task = new ScraperTask(txfUrl.getText(), TaskSettings.SCRAPER_DEPTH_LIMIT);
             
             try {
                 task.setDestination(txfDest.getText());
@@ -148,6 +139,7 @@ public class ScraperPanel extends DownloadTaskPanel {
                 );
                 return;
             }
+            TaskSettings.configureScraper(task);
 
             fireTaskCreated(task, DESCRIPTION_MASK, 
                     task.getURL(), 
@@ -177,15 +169,5 @@ public class ScraperPanel extends DownloadTaskPanel {
     public Integer getMnemonic() {
         return MNEMONIC;
     }
-
-    @Override
-    protected int getFailThreshold() {
-        return 0;
-    }
-
-    @Override
-    protected int getMinFilesize() {
-        return MIN_FILESIZE;
-    }
   
 }
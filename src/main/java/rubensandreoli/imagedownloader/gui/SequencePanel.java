@@ -20,8 +20,8 @@ import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import javax.swing.JOptionPane;
-import rubensandreoli.commons.others.Configuration;
 import rubensandreoli.imagedownloader.tasks.SequenceTask;
+import rubensandreoli.imagedownloader.tasks.TaskSettings;
 import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
 
 /** 
@@ -45,15 +45,6 @@ public class SequencePanel extends DownloadTaskPanel {
     private static final String INVALID_URL_MSG = "Please verify if the link provided is valid.\n";
     // </editor-fold>
     
-    // <editor-fold defaultstate="collapsed" desc=" CONFIGURATIONS "> 
-    private static final int FAIL_THRESHOLD;
-    private static final int MIN_FILESIZE;
-    static{
-        FAIL_THRESHOLD = Configuration.values.get("sequence:fails_threshold", SequenceTask.DEFAULT_FAIL_THRESHOLD, 0);
-        MIN_FILESIZE = Configuration.values.get("sequence:filesize_min", SequenceTask.DEFAULT_MIN_FILESIZE, 0);
-    }
-    // </editor-fold>
-    
     public SequencePanel() {
         super(TITLE);
         initComponents();
@@ -133,6 +124,7 @@ public class SequencePanel extends DownloadTaskPanel {
     private void btnAddActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnAddActionPerformed
         try {
             final SequenceTask task = new SequenceTask(txfUrl.getText().trim(), txfNumber.getInt());
+            TaskSettings.configureSequence(task);
             
             try {
                 task.setDestination(txfDest.getText());
@@ -181,14 +173,4 @@ public class SequencePanel extends DownloadTaskPanel {
         return MNEMONIC;
     }
 
-    @Override
-    protected int getFailThreshold() {
-        return FAIL_THRESHOLD;
-    }
-
-    @Override
-    protected int getMinFilesize() {
-        return MIN_FILESIZE;
-    }
-
 }
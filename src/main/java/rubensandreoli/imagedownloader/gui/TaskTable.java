@@ -30,7 +30,9 @@ import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
 import rubensandreoli.commons.utils.FileUtils;
+import rubensandreoli.imagedownloader.tasks.DownloadTask;
 import rubensandreoli.imagedownloader.tasks.Task;
+import rubensandreoli.imagedownloader.tasks.support.TaskJournal;
 
 /** 
  * References:
@@ -43,9 +45,10 @@ public class TaskTable extends javax.swing.JTable {
     
     private static final String TOOLTIP = "<html>Select rows and press the <b>delete key</b><br>"
             + " to <b>remove</b> a task that hasn't been started yet,<br>"
-            + " or to <b>stop</b> the current task.</html>";
-    private static final String[] COLUMNS_NAME =  new String [] {"Type", "", "Description"};
-    private static final int[] COLUMNS_WIDTH = new int[] {56, 22, 400};
+            + " or to <b>stop</b> a running task.</html>";
+    private static final String[] COLUMNS_NAME =  new String [] {"Type", "", "Progress", "Description"};
+    private static final int[] COLUMNS_WIDTH = new int[] {56, 22, 72, 328};
+    private static final String PROGRESS_MASK = "%d/%d"; //progress, total
     private static final int ROWS_HEIGHT = 18;
     
     private TableModel model = new TableModel();
@@ -89,7 +92,7 @@ public class TaskTable extends javax.swing.JTable {
 
         @Override
         public int getColumnCount() {
-            return 3;
+            return 4;
         }
 
         @Override
@@ -110,6 +113,7 @@ public class TaskTable extends javax.swing.JTable {
                 case 1:
                     return Task.class;
                 case 2:
+                case 3:
                     return String.class;
                 default:
                     return null;
@@ -125,6 +129,8 @@ public class TaskTable extends javax.swing.JTable {
                 case 1:
                     return t.task;
                 case 2:
+                    return getProgress(t.task);
+                case 3:
                     return t.description;
                 default:
                     return null;
@@ -186,7 +192,10 @@ public class TaskTable extends javax.swing.JTable {
         getColumnModel().getColumn(1).setMinWidth(COLUMNS_WIDTH[1]);
         getColumnModel().getColumn(1).setPreferredWidth(COLUMNS_WIDTH[1]);
         getColumnModel().getColumn(1).setResizable(false);
+        getColumnModel().getColumn(2).setMinWidth(COLUMNS_WIDTH[2]);
         getColumnModel().getColumn(2).setPreferredWidth(COLUMNS_WIDTH[2]);
+        getColumnModel().getColumn(2).setResizable(false);
+        getColumnModel().getColumn(3).setPreferredWidth(COLUMNS_WIDTH[3]);
         setRowHeight(ROWS_HEIGHT); 
         
         setDefaultRenderer(Task.class, new TaskCellRenderer());
@@ -208,6 +217,21 @@ public class TaskTable extends javax.swing.JTable {
         addTask(new TaskAdapter(title, task, description));
     }
  
+    private static String getProgress(Task task){
+        if(!(task instanceof DownloadTask) || task.getStatus() == Task.State.WAITING) return "";
+        final TaskJournal.Snapshot snapshot = ((DownloadTask) task).getSnapshot(); //pair read at once
+        return String.format(PROGRESS_MASK, snapshot.progress, snapshot.workload);
+    }
+    
+    public void refresh(Task task){
+        for (int row = 0; row < tasks.size(); row++) {
+            if(tasks.get(row).task == task){
+                model.fireTableRowsUpdated(row, row);
+                return;
+            }
+        }
+    }
+    
     public void refresh(){
         model.fireTableDataChanged();
     }
@@ -17,24 +17,28 @@
 package rubensandreoli.imagedownloader.tasks;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.List;
 import rubensandreoli.commons.utils.FileUtils;
 import rubensandreoli.imagedownloader.tasks.support.Downloader;
 import rubensandreoli.imagedownloader.tasks.support.ImageInfo;
 import rubensandreoli.imagedownloader.tasks.support.TaskJournal;
 
-public abstract class BasicGoogleSubtask implements GoogleSubtask{
+public abstract class BasicGoogleSubtask implements GoogleSubtask, Serializable{
+    private static final long serialVersionUID = 1L;
 
+    private final String subfolderName;
     protected String subfolder;
 
     public BasicGoogleSubtask(String subfolder) {
+        this.subfolderName = subfolder;
         this.subfolder = subfolder;
     }
 
     @Override
     public void preProcessing(String destination) {
         try {
-            subfolder = FileUtils.createSubfolder(destination, subfolder).getPath();
+            subfolder = FileUtils.createSubfolder(destination, subfolderName).getPath();
         } catch (IOException ex) {
             subfolder = destination;
         }
@@ -45,5 +49,9 @@ public abstract class BasicGoogleSubtask implements GoogleSubtask{
 
     @Override
     public void postProcessing(TaskJournal monitor, Downloader downloader) {}
+
+    public String getSubfolder() {
+        return subfolder;
+    }
     
 }
@@ -18,9 +18,15 @@ package rubensandreoli.imagedownloader.tasks;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import rubensandreoli.commons.others.CachedFile;
 import rubensandreoli.commons.others.Level;
 import rubensandreoli.commons.others.Logger;
+import rubensandreoli.imagedownloader.tasks.support.DownloadCallback;
 import rubensandreoli.imagedownloader.tasks.support.DownloadListener;
+import rubensandreoli.imagedownloader.tasks.support.DownloadPool;
 import rubensandreoli.imagedownloader.tasks.support.Downloader;
 import rubensandreoli.imagedownloader.tasks.support.ProgressListener;
 import rubensandreoli.imagedownloader.tasks.support.TaskJournal;
@@ -29,17 +35,55 @@ public abstract class DownloadTask implements Task, DownloadListener {
     
     // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS "> 
     public static final String DOWNLOAD_TOTAL_LOG_MASK = "%d successful download(s)"; //successess
+    private static final String INDEXING_LOG_MASK = "Indexing [%s]: %d file(s) read"; //folder, files
     
     private static final String NO_FOLDER_MSG = "No folder selected.";
     private static final String NOT_FOLDER_MSG_MASK = "Path [%s] is not a folder, or couldn't be found."; //filepath
     private static final String FOLDER_PERMISSION_MSG_MASK = "You don't have folder [%s] read/write permissions.";
     // </editor-fold>
     
+    // <editor-fold defaultstate="collapsed" desc=" CHECKPOINT "> 
+    /**
+     * Serializable state of a task, enough to create it again and continue 
+     * from where it stopped. Connection settings aren't kept; they are taken 
+     * from the configuration when the task is restored.
+     */
+    public static abstract class Checkpoint implements Serializable{
+        private static final long serialVersionUID = 1L;
+        
+        private final String destination;
+        private final int failThreshold;
+        private final int minFilesize;
+        private final int successes;
+
+        protected Checkpoint(DownloadTask task) {
+            destination = task.destination;
+            failThreshold = task.failTreashold;
+            minFilesize = task.minFilesize;
+            successes = task.getSuccesses();
+        }
+        
+        public abstract DownloadTask restore() throws IOException;
+        
+        protected <T extends DownloadTask> T restore(T task) throws IOException{
+            task.setDestination(destination);
+            task.setFailThreshold(failThreshold);
+            task.setMinFilesize(minFilesize);
+            task.journal.setSuccesses(successes);
+            return task;
+        }
+        
+    }
+    // </editor-fold>
+    
     protected final TaskJournal journal = new TaskJournal();
     protected Downloader downloader = new Downloader();
+    private volatile DownloadPool pool; //created by the worker thread
+    private int parallelism = DownloadPool.DEFAULT_PARALLELISM;
     private String destination;
     private boolean reportStatus = true, reportSuccesses = true;
     private int failTreashold = 0; //value '0' won't fail
+    private int minFilesize = 0;
 
     @Override
     public boolean perform(){
@@ -52,6 +96,7 @@ public abstract class DownloadTask implements Task, DownloadListener {
             Logger.log.print(Level.CRITICAL, "Unexpected exception "+ex.getClass().toString(), ex);
             journal.setState(State.CRASHED);
         }
+        closeDownloads();
         if(journal.isRunning()) journal.setState(State.COMPLETED);
         if(reportStatus) journal.reportState();
         if(reportSuccesses) journal.report(Level.INFO, false, DOWNLOAD_TOTAL_LOG_MASK, journal.getSuccesses());
@@ -62,9 +107,47 @@ public abstract class DownloadTask implements Task, DownloadListener {
     protected abstract void run();
     protected abstract void close();
     
+    /**
+     * Safe to call from other threads while the task runs.
+     */
+    public abstract Checkpoint checkpoint();
+    
     @Override
     public boolean interrupt() {
-        return journal.interrupt();
+        final boolean interrupted = journal.interrupt();
+        if(interrupted && pool != null) pool.cancel();
+        return interrupted;
+    }
+    
+    protected Future<CachedFile> submitDownload(String url, String folder, String filename, String extension, DownloadCallback callback){
+        return getPool().submit(url, folder, filename, extension, callback);
+    }
+    
+    protected Future<CachedFile> submitJob(Callable<CachedFile> job){
+        return getPool().submit(job);
+    }
+    
+    private DownloadPool getPool(){
+        if(pool == null) pool = new DownloadPool(downloader, parallelism);
+        return pool;
+    }
+    
+    protected void awaitDownloads(){
+        if(pool != null) pool.await();
+    }
+    
+    private void closeDownloads(){
+        if(pool != null) pool.close(); //workers end now, instead of idling until their timeout
+    }
+    
+    /**
+     * Loads the duplicates index of {@code folder} before downloading to it,
+     * reporting the progress of a rebuild.
+     */
+    protected void indexFolder(String folder){
+        try {
+            downloader.index(folder, files -> journal.report(Level.INFO, false, INDEXING_LOG_MASK, folder, files));
+        } catch (IOException ex) {} //loaded again on the first download
     }
     
     protected File getWritableFolder(String pathname) throws IOException{
@@ -100,12 +183,26 @@ public abstract class DownloadTask implements Task, DownloadListener {
         this.reportSuccesses = b;
     }
     
+    public void setParallelism(int downloads){
+        if(downloads < DownloadPool.MIN_PARALLELISM) throw new IllegalArgumentException(downloads+" < "+DownloadPool.MIN_PARALLELISM);
+        parallelism = downloads;
+    }
+    
     public void setDestination(String folder) throws IOException {
         destination = getWritableFolder(folder).getPath();
     }
 
     public void setMinFilesize(int bytes) {
         downloader.setMinFilesize(bytes);
+        minFilesize = bytes;
+    }
+    
+    public void setDeduplicate(boolean b) {
+        downloader.setDeduplicate(b);
+    }
+    
+    public void setRememberUrls(boolean remember, boolean revalidate) {
+        downloader.setRememberUrls(remember, revalidate);
     }
     
     public void setConnection(int connectionTimeout, int readTimeout, int minCooldown, int maxCooldown){
@@ -114,6 +211,14 @@ public abstract class DownloadTask implements Task, DownloadListener {
         downloader.setCooldown(minCooldown, maxCooldown);
     }
     
+    /**
+     * Downloads with the same connection settings as the parent task's 
+     * {@code downloader}, for tasks started by another.
+     */
+    public void setConnection(Downloader parent){
+        downloader.setConnection(parent);
+    }
+    
     public void silent(boolean b){
         journal.setSilent(b);
     }
@@ -124,6 +229,10 @@ public abstract class DownloadTask implements Task, DownloadListener {
         return destination;
     }
 
+    protected int getParallelism(){
+        return parallelism;
+    }
+    
     protected boolean interrupted(){
         return journal.isInterrupted();
     }
@@ -132,6 +241,10 @@ public abstract class DownloadTask implements Task, DownloadListener {
         return journal.fail(failTreashold);
     }
     
+    protected int getFailThreshold(){
+        return failTreashold;
+    }
+    
     @Override
     public State getStatus() {
         return journal.getStatus();
@@ -144,6 +257,13 @@ public abstract class DownloadTask implements Task, DownloadListener {
     public int getFails(){
         return journal.getFails();
     }
+    
+    /**
+     * Safe to call from other threads while the task runs.
+     */
+    public TaskJournal.Snapshot getSnapshot(){
+        return journal.getSnapshot();
+    }
     // </editor-fold>
 
     @Override
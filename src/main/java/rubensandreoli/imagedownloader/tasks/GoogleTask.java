@@ -16,23 +16,41 @@
  */
 package rubensandreoli.imagedownloader.tasks;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import rubensandreoli.commons.others.Level;
 import rubensandreoli.commons.utils.FileUtils;
 import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
 import rubensandreoli.imagedownloader.tasks.exceptions.LoadException;
 import rubensandreoli.imagedownloader.tasks.exceptions.SearchException;
 import rubensandreoli.imagedownloader.tasks.exceptions.UploadException;
+import rubensandreoli.imagedownloader.tasks.support.HttpUtils;
 import rubensandreoli.imagedownloader.tasks.support.Searcher;
+import rubensandreoli.imagedownloader.tasks.support.Searcher.Search;
+import rubensandreoli.imagedownloader.tasks.support.VirtualThreads;
 
 /** 
+ * Images go through a pipeline of stages linked by bounded queues:
+ * local loading, reverse search upload, result page search, and the 
+ * subtasks processing, in the task thread. Each stage has its own 
+ * workers, so reading the next images overlaps network waits.
+ * 
  * References:
  * https://javapapers.com/java/glob-with-java-nio/
  * https://stackoverflow.com/questions/5923817/how-to-clone-an-inputstream/5924132
@@ -47,6 +65,11 @@ public class GoogleTask extends DownloadTask{
     // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS "> 
     public static final int DEFAULT_FAIL_THRESHOLD = 10;
     public static final int DEFAULT_MIN_FILESIZE = 25600; //bytes
+    public static final int DEFAULT_SEARCH_WORKERS = 2; //per network stage
+    public static final int MIN_SEARCH_WORKERS = 1;
+    
+    private static final int LOAD_WORKERS = 1; //disk bound
+    private static final int QUEUE_CAPACITY = 4; //jobs between stages
     
     private static final String EMPTY_SOURCE_MSG_MASK = "Source folder [%s] doesn't contain any image file.";
     private static final String INVALID_BOUNDS_MSG_MASK = "Starting index must be greater than 0 and smaller than the number of image files [%d] in the source folder.";
@@ -57,12 +80,135 @@ public class GoogleTask extends DownloadTask{
     private static final String FAILED_UPLOADING_LOG = "Failed connecting/uploading image";
     private static final String FAILED_READING_FILE_LOG = "Failed reading file";
     // </editor-fold>
+    
+    // <editor-fold defaultstate="collapsed" desc=" PIPELINE "> 
+    private static class Job{
+        
+        private final int index;
+        private final Path image;
+        private final Search search;
+        private Exception error; //stops the job from going through the next stages
+
+        private Job(int index, Path image, Search search) {
+            this.index = index;
+            this.image = image;
+            this.search = search;
+        }
+        
+    }
+    
+    @FunctionalInterface
+    private static interface Step{
+        void apply(Search search) throws LoadException, UploadException, SearchException;
+    }
+    
+    private static class Stage implements Runnable{
+        
+        private static final Job END = new Job(-1, null, null);
+        
+        private final BlockingQueue<Job> in;
+        private final BlockingQueue<Job> out;
+        private final Step step;
+        private final AtomicInteger workers;
+
+        private Stage(BlockingQueue<Job> in, BlockingQueue<Job> out, Step step, int workers) {
+            this.in = in;
+            this.out = out;
+            this.step = step;
+            this.workers = new AtomicInteger(workers);
+        }
+        
+        private void start(ExecutorService executor){
+            for (int i = workers.get(); i > 0; i--) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try{
+                Job job;
+                while((job = in.take()) != END){
+                    if(job.error == null){
+                        try {
+                            step.apply(job.search);
+                        } catch (LoadException | UploadException | SearchException | RuntimeException ex) { //a dead worker would stall the pipeline
+                            job.error = ex;
+                        }
+                    }
+                    out.put(job);
+                }
+                in.put(END); //let the other workers of this stage finish
+            }catch(InterruptedException ex){ //pipeline stopped
+                Thread.currentThread().interrupt();
+            }finally{
+                if(workers.decrementAndGet() == 0) close(); //last worker closes the stage
+            }
+        }
+        
+        private void close(){
+            try {
+                out.put(END);
+            } catch (InterruptedException ex) { //pipeline stopped
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+    }
+    // </editor-fold>
+    
+    // <editor-fold defaultstate="collapsed" desc=" CHECKPOINT "> 
+    private static class GoogleCheckpoint extends Checkpoint{
+        private static final long serialVersionUID = 1L;
+        
+        private final String source;
+        private final String linkText;
+        private final int searchWorkers;
+        private final int resumeIndex;
+        private final byte[] subtasks; //serialized while holding the progress lock
+
+        private GoogleCheckpoint(GoogleTask task) {
+            super(task);
+            source = task.getSource();
+            linkText = task.linkText;
+            searchWorkers = task.searchWorkers;
+            resumeIndex = task.resumeIndex;
+            final var bytes = new ByteArrayOutputStream();
+            try(var os = new ObjectOutputStream(bytes)){
+                os.writeObject(task.subtasks == null? new ArrayList<>() : new ArrayList<>(task.subtasks));
+            } catch (IOException ex) { //subtasks are serializable
+                throw new IllegalStateException(ex);
+            }
+            subtasks = bytes.toByteArray();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public DownloadTask restore() throws IOException {
+            final GoogleTask task = restore(new GoogleTask(source, linkText));
+            task.setSearchWorkers(searchWorkers);
+            try(var is = new ObjectInputStream(new ByteArrayInputStream(subtasks))){
+                ((List<GoogleSubtask>) is.readObject()).forEach(task::addSubtask);
+            } catch (ClassNotFoundException ex) {
+                throw new IOException(ex);
+            }
+            task.startIndex = task.resumeIndex = Math.min(resumeIndex, task.getImageCount());
+            return task;
+        }
+        
+    }
+    // </editor-fold>
 
     private final Path source;
     private final List<Path> images;
     private final int size;
     private final Searcher searcher;
+    private final String linkText;
+    private final Object progressLock = new Object(); //processed indexes and checkpoints; never held while downloading
+    private final BitSet done = new BitSet(); //processed image indexes
     private int startIndex = 0;
+    private volatile int resumeIndex = 0; //first image not processed yet
+    private int searchWorkers = DEFAULT_SEARCH_WORKERS;
     private Set<GoogleSubtask> subtasks;
 
     public GoogleTask(String source, String linkText) throws IOException{
@@ -77,6 +223,7 @@ public class GoogleTask extends DownloadTask{
             this.source = path;
         }
         this.searcher = new Searcher(linkText);
+        this.linkText = linkText;
         
         //----------SUPER----------//
         downloader.setSleep(false);
@@ -91,32 +238,33 @@ public class GoogleTask extends DownloadTask{
         
         //----------SUBTASKS PRE-PROCESSING----------//
         subtasks.forEach(subtask -> subtask.preProcessing(getDestination()));
-
+        subtasks.forEach(subtask -> {
+            if(subtask instanceof BasicGoogleSubtask) indexFolder(((BasicGoogleSubtask) subtask).getSubfolder());
+        });
+        
+        //----------PIPELINE----------//
+        final BlockingQueue<Job> queued = new LinkedBlockingQueue<>();
         for (int i = startIndex; i < getImageCount(); i++) {
-            if(interrupted() || failed()) break; //INTERRUPT EXIT POINT
             final Path image = images.get(i);
-            final var log = journal.startNewLog(true)
-                    .appendLine(IMAGE_NUMBER_LOG_MASK, i)
-                    .appendLine(Level.INFO, LOADING_IMAGE_LOG_MASK, image.toString());
+            queued.add(new Job(i, image, searcher.prepare(image)));
+        }
+        queued.add(Stage.END);
+        final BlockingQueue<Job> loaded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final BlockingQueue<Job> uploaded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final BlockingQueue<Job> searched = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final ExecutorService stages = VirtualThreads.newFixedThreadPool(LOAD_WORKERS+searchWorkers*2);
+        new Stage(queued, loaded, Search::load, LOAD_WORKERS).start(stages);
+        new Stage(loaded, uploaded, Search::upload, searchWorkers).start(stages);
+        new Stage(uploaded, searched, Search::search, searchWorkers).start(stages);
 
-            try {
-                final var result = searcher.search(image);
-                if(result.isEmpty()){
-                    log.appendLine(Level.WARNING, NO_SIMILAR_LOG);
-                }else{
-                    
-                    //----------SUBTASKS PROCESSING----------//
-                    subtasks.forEach(subtask -> subtask.processing(journal, downloader, result.source, result.images));
-                    
-                }
-                journal.resetFails();
-            } catch (LoadException ex) {
-                log.appendLine(Level.ERROR, FAILED_READING_FILE_LOG);
-            } catch (UploadException | SearchException ex) {
-                journal.increaseFails();
-                log.appendLine(Level.ERROR, FAILED_UPLOADING_LOG);
+        try{
+            Job job;
+            while(!(interrupted() || failed()) && (job = searched.take()) != Stage.END){ //INTERRUPT EXIT POINT
+                process(job);
             }
-            journal.reportCurrentLog();
+        }catch(InterruptedException ex){
+        }finally{
+            stages.shutdownNow(); //unblock stages waiting on full queues
         }
         
         //----------SUBTASKS POST-PROCESSING----------//
@@ -124,10 +272,54 @@ public class GoogleTask extends DownloadTask{
         
     }
 
+    /**
+     * Subtasks download without holding the progress lock, so a checkpoint
+     * isn't kept waiting on them; they guard their own state. A checkpoint
+     * taken meanwhile resumes at this image, which is processed again.
+     */
+    private void process(Job job){
+        processSubtasks(job);
+        synchronized(progressLock){
+            done.set(job.index);
+            resumeIndex = done.nextClearBit(resumeIndex); //results arrive out of order
+        }
+    }
+    
+    private void processSubtasks(Job job){
+        final var log = journal.startNewLog(true)
+                .appendLine(IMAGE_NUMBER_LOG_MASK, job.index)
+                .appendLine(Level.INFO, LOADING_IMAGE_LOG_MASK, job.image.toString());
+
+        if(job.error == null){
+            final var result = job.search.getResult();
+            if(result.isEmpty()){
+                log.appendLine(Level.WARNING, NO_SIMILAR_LOG);
+            }else{
+
+                //----------SUBTASKS PROCESSING----------//
+                subtasks.forEach(subtask -> subtask.processing(journal, downloader, result.source, result.images));
+
+            }
+            journal.resetFails();
+        }else if(job.error instanceof LoadException){
+            log.appendLine(Level.ERROR, FAILED_READING_FILE_LOG);
+        }else{
+            journal.increaseFails();
+            log.appendLine(Level.ERROR, FAILED_UPLOADING_LOG);
+        }
+        journal.reportCurrentLog();
+    }
+
     @Override
     protected void close() {
         images.clear();
-        subtasks = null;
+    }
+    
+    @Override
+    public Checkpoint checkpoint() {
+        synchronized(progressLock){
+            return new GoogleCheckpoint(this);
+        }
     }
 
     // <editor-fold defaultstate="collapsed" desc=" SETTERS ">
@@ -135,7 +327,12 @@ public class GoogleTask extends DownloadTask{
         if(startIndex < 0 || startIndex>images.size()-1){
             throw new BoundsException(String.format(INVALID_BOUNDS_MSG_MASK, images.size()));
         }
-        this.startIndex = startIndex;
+        this.startIndex = resumeIndex = startIndex;
+    }
+    
+    public void setSearchWorkers(int amount){
+        if(amount < MIN_SEARCH_WORKERS) throw new IllegalArgumentException(amount+" < "+MIN_SEARCH_WORKERS);
+        searchWorkers = amount;
     }
     
     public boolean addSubtask(GoogleSubtask subtask){
@@ -146,6 +343,11 @@ public class GoogleTask extends DownloadTask{
     // </editor-fold>
     
     // <editor-fold defaultstate="collapsed" desc=" GETTERS "> 
+    @Override
+    public String getHost() {
+        return HttpUtils.getHost(Searcher.GOOGLE_LINK); //searches; downloads go to any site
+    }
+
     public int getImageCount(){
         return size;
     }
@@ -161,7 +363,9 @@ public class GoogleTask extends DownloadTask{
 
     @Override
     public void downloadStateChanged(Level level, String description) {
-        journal.getCurrentLog().appendLine(level, description);
+        final var log = journal.getCurrentLog();
+        if(log != null) log.appendLine(level, description); //image being processed by this thread
+        else journal.report(level, false, description); //post-processing
     }
 
 }
@@ -25,6 +25,7 @@ import rubensandreoli.imagedownloader.tasks.support.ImageInfo;
 import rubensandreoli.imagedownloader.tasks.support.TaskJournal;
 
 public class LargerSubtask extends BasicGoogleSubtask{
+    private static final long serialVersionUID = 1L;
     
     // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
     public static final int PRIORITY = 0;
@@ -17,22 +17,45 @@
 package rubensandreoli.imagedownloader.tasks;
 
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import rubensandreoli.commons.others.Level;
+import rubensandreoli.imagedownloader.tasks.Task.State;
 import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
+import rubensandreoli.imagedownloader.tasks.support.DownloadPool;
 import rubensandreoli.imagedownloader.tasks.support.Downloader;
 import rubensandreoli.imagedownloader.tasks.support.ImageInfo;
 import rubensandreoli.imagedownloader.tasks.support.TaskJournal;
+import rubensandreoli.imagedownloader.tasks.support.TaskScheduler;
+import rubensandreoli.imagedownloader.tasks.support.TaskScheduler.SchedulerListener;
 
+/**
+ * Numbers found for each link are kept as sorted primitive arrays, and
+ * links from the same folder share its path, since a long run may track
+ * thousands of them until the end.
+ * <br>
+ * Numbers too big for an {@code int} are split: their leading digits stay
+ * fixed in the link and only the last {@code SPLIT_DIGITS} are sequenced.
+ * 
+ * References:
+ * https://en.wikipedia.org/wiki/String_interning
+ * https://docs.oracle.com/javase/8/docs/api/java/util/Arrays.html#binarySearch-long:A-int-int-long-
+ * 
+ * @author Rubens A. Andreoli Jr.
+ */
 public class MoreSubtask extends BasicGoogleSubtask{
+    private static final long serialVersionUID = 2L;
     
     // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
     public static final int PRIORITY = LargerSubtask.PRIORITY+1;
@@ -41,48 +64,61 @@ public class MoreSubtask extends BasicGoogleSubtask{
     public static final int DEFAULT_MIN_DIMENSION = 400;
     public static final int MIN_MIN_DIMENSION = 10;
     public static final int DEFAULT_SEQUENCE_LIMIT = 1000;
+    public static final int DEFAULT_SEQUENCE_WORKERS = 4;
+    public static final int DEFAULT_SEQUENCES_PER_HOST = 1;
+    public static final boolean DEFAULT_STREAMING = false;
+    private static final long INTERRUPT_POLL = 500; //ms
     private static final int OCURRANCE_CONFIRMATION = 2;
     
     private static final String NUMBER_REGEX = "\\d+";
     private static final String VALID_IMAGE_REGEX = ".*"+NUMBER_REGEX+".*";
     private static final Pattern NUMBER_PATTERN = Pattern.compile(NUMBER_REGEX);
-    private static final String CONFIRMED_MARKER = ".";
+    private static final int MAX_DIGITS = 18; //always fits a long
+    private static final int SPLIT_DIGITS = 9; //always fits an int
+    private static final long SPLIT = 1_000_000_000L; //10^SPLIT_DIGITS
     
     private static final String TITLE_LOG = "MORE";
     private static final String FOUND_SEQUENCE_LOG_MASK = "Found %d new potential sequence(s)";
     private static final String SEQUENCE_START_LOG_MASK = "Starting sequence [%s] -> [%d:%d]"; //url; start; end
-    private static final String SEQUENCE_TOTAL_LOG_MASK = "%d sequential download(s)";
+    private static final String SEQUENCE_TOTAL_LOG_MASK = "%d sequential download(s) from [%s]"; //successes; url
     private static final String SEQUENCE_TOO_BIG_LOG_MASK = "Sequence [%s] is too big [%,d values]"; //url; sequence size
     private static final String SEQUENCE_FAILED_LOG = "Failed starting sequence";
+    private static final String SEQUENCE_OVERFLOW_LOG_MASK = "Sequence [%s] numbers are too big [%d:%d]"; //url; first; last
     // </editor-fold>
 
     // <editor-fold defaultstate="collapsed" desc=" LINK "> 
-    public static class Link{
+    public static class Link implements Serializable{
+        private static final long serialVersionUID = 2L;
 
-        public final String start;
-        public final String end;
+        private final String parent; //shared by the links in the same folder
+        private final String head; //filename before the number
+        private final String tail; //filename after the number, and extension
 
         public Link(String parent, String filenameStart, String filenameEnd, String extension) {
-            start = new StringBuilder(parent).append("/").append(filenameStart).append("{").toString();
-            end = new StringBuilder("}").append(filenameEnd).append(extension).toString();
+            this.parent = parent;
+            head = filenameStart;
+            tail = filenameEnd.isEmpty()? extension : filenameEnd+extension;
         }
 
         public String getMaskedLink(String middle){
-            return new StringBuilder(start).append(middle).append(end).toString();
+            return getMaskedLink("", middle);
         }
         
-        public String getMaskedLink(String numberMask, int value){
-            return getMaskedLink(String.format(numberMask, value));
+        /**
+         * @param fixed digits before the marked number
+         */
+        public String getMaskedLink(String fixed, String middle){
+            return new StringBuilder(parent).append("/").append(head).append(fixed).append("{").append(middle).append("}").append(tail).toString();
         }
 
         @Override
         public String toString() {
-            return new StringBuilder(start).append("?").append(end).toString();
+            return getMaskedLink("?");
         }
 
         @Override
         public int hashCode() {
-            return 97 + Objects.hashCode(this.start);
+            return 97 + 31*Objects.hashCode(parent) + Objects.hashCode(head);
         }
 
         @Override
@@ -90,17 +126,96 @@ public class MoreSubtask extends BasicGoogleSubtask{
             if (this == obj) return true;
             if (obj == null) return false;
             if (getClass() != obj.getClass()) return false;
-            return Objects.equals(this.start, ((Link) obj).start);
+            final Link other = (Link) obj;
+            return Objects.equals(this.parent, other.parent) && Objects.equals(this.head, other.head);
+        }
+
+    }
+    // </editor-fold>
+    
+    // <editor-fold defaultstate="collapsed" desc=" NUMBERS "> 
+    private static class Numbers implements Serializable{
+        private static final long serialVersionUID = 1L;
+        
+        private long[] values = new long[OCURRANCE_CONFIRMATION]; //sorted, distinct
+        private int size;
+        private Set<String> overflows; //distinct numbers with more than MAX_DIGITS; 'null' if none
+        private int width; //digits of the longest number
+        private boolean padded; //a number starts with '0'
+        private boolean confirmed;
+        private long base = -1; //value of index '0' of the started sequence; '-1' if not started
+        private volatile boolean done; //sequence ended or discarded; kept in checkpoints
+
+        /**
+         * @return the number value, or {@code -1} if too big
+         */
+        private long add(String number){
+            if(number.charAt(0) == '0') padded = true;
+            if(number.length() > width) width = number.length();
+            if(number.length() > MAX_DIGITS){
+                if(overflows == null) overflows = new HashSet<>(OCURRANCE_CONFIRMATION);
+                overflows.add(number);
+                return -1;
+            }
+            final long value = Long.parseLong(number);
+            int i = Arrays.binarySearch(values, 0, size, value);
+            if(i >= 0) return value;
+            i = -i-1;
+            if(size == values.length) values = Arrays.copyOf(values, size*2);
+            System.arraycopy(values, i, values, i+1, size-i);
+            values[i] = value;
+            size++;
+            return value;
+        }
+        
+        private int count(){
+            return overflows == null? size : size+overflows.size();
+        }
+        
+        private int endInZero(){
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if(values[i] % 10 == 0) count++;
+            }
+            return count;
+        }
+
+        private long first(){
+            return values[0];
+        }
+
+        private long last(){
+            return values[size-1];
+        }
+        
+        /**
+         * @return index of {@code value} in the started sequence, or 
+         * {@code -1} if out of it
+         */
+        private int indexOf(long value){
+            final long index = value-base;
+            final long max = base == 0? Integer.MAX_VALUE : SPLIT-1;
+            return index < 0 || index > max? -1 : (int) index;
         }
 
     }
     // </editor-fold>
     
-    private final Map<Link, Set<String>> links = new HashMap<>();
+    private final Map<Link, Numbers> links = new HashMap<>();
+    private final Map<String, String> parents = new HashMap<>(); //interned link paths
     private int minDimension = DEFAULT_MIN_DIMENSION;
     private int lowerMargin = DEFAULT_LOWER_MARGIN;
     private int upperMargin = DEFAULT_UPPER_MARGIN;
     private int sequenceLimit = DEFAULT_SEQUENCE_LIMIT;
+    private int sequenceWorkers = DEFAULT_SEQUENCE_WORKERS;
+    private int parallelism = DownloadPool.DEFAULT_PARALLELISM; //downloads shared by the running sequences
+    private int sequencesPerHost = DEFAULT_SEQUENCES_PER_HOST;
+    private boolean streaming = DEFAULT_STREAMING; //start sequences as soon as confirmed
+    private transient TaskScheduler scheduler; //'null' until a sequence starts
+    private transient Map<Task, Link> sequences;
+    private transient Map<Task, Numbers> sequenceNumbers; //'links' isn't safe to read from the scheduler threads
+    private transient Map<Link, SequenceTask> started; //handled links since started or restored; task thread only
+    private transient boolean titled;
     
     public MoreSubtask(String subfolder) {
         super(subfolder);
@@ -108,33 +223,45 @@ public class MoreSubtask extends BasicGoogleSubtask{
     
     @Override
     public void processing(TaskJournal journal, Downloader downloader, ImageInfo source, List<ImageInfo> similars)  {
-        int found = 0;
-        for (ImageInfo i : similars) {
-            
-            //PREPARE VALUES
-            final String parent = i.getParent();
-            final String filename = i.getFilename().replaceAll("%20", " ");
-            final String extension = i.getExtension();
+        final List<Link> confirmed = new ArrayList<>();
+        synchronized(links){ //serialized by checkpoints from other threads
+            for (ImageInfo i : similars) {
+
+                //PREPARE VALUES
+                final String parent = i.getParent();
+                final String filename = i.getFilename().replaceAll("%20", " ");
+                final String extension = i.getExtension();
+
+                //TEST AND ADD SEQUENCE
+                if(filename.matches(VALID_IMAGE_REGEX) && (i.width > minDimension && i.height > minDimension)){
+                    addSequence(parent, filename, extension, confirmed);
+                }
+            }
+            journal.addWorkload(confirmed.size());
+            journal.getCurrentLog().appendLine(Level.INFO, FOUND_SEQUENCE_LOG_MASK, confirmed.size());
 
-            //TEST AND ADD SEQUENCE
-            if(filename.matches(VALID_IMAGE_REGEX) && (i.width > minDimension && i.height > minDimension)){
-                found += addSequence(parent, filename, extension);
+            //STREAM CONFIRMED
+            if(streaming){
+                for (Link link : confirmed) {
+                    if(journal.isInterrupted()) break; //INTERRUPT EXIT POINT
+                    startSequence(journal, downloader, link); //only submitted, doesn't block
+                }
             }
         }
-        journal.addWorkload(found);
-        journal.getCurrentLog().appendLine(Level.INFO, FOUND_SEQUENCE_LOG_MASK, found);
     }
     
-    private int addSequence(String parent, String filename, String extension){
-        int added = 0, found = 0;
+    private void addSequence(String parent, String filename, String extension, List<Link> confirmed){
+        int found = 0;
         boolean created = false;
         final Matcher matcher = NUMBER_PATTERN.matcher(filename);
-        Set<String> numbers = null;
+        Link link = null;
+        Numbers numbers = null;
+        parent = parents.computeIfAbsent(parent, p -> p);
         while(matcher.find()){
             found++;
             final int start = matcher.start();
             final int end = matcher.end();
-            final Link link = new Link(
+            link = new Link(
                     parent, 
                     filename.substring(0, start), 
                     filename.substring(end), 
@@ -143,89 +270,176 @@ public class MoreSubtask extends BasicGoogleSubtask{
             final String number = filename.substring(start, end);
 
             if((numbers = links.get(link)) != null){
-                numbers.add(number);
-                if(numbers.size() == OCURRANCE_CONFIRMATION){ //confirm after X ocurrances
-                    numbers.add(CONFIRMED_MARKER);
-                    added++;
+                final long value = numbers.add(number);
+                final SequenceTask sequence = started == null? null : started.get(link);
+                if(sequence != null){ //already downloading; the image was found by the reverse search
+                    final int index = value == -1? -1 : numbers.indexOf(value);
+                    if(index != -1) sequence.excludeNumbers(List.of(index));
+                }else if(!numbers.confirmed && numbers.count() >= OCURRANCE_CONFIRMATION){ //confirm after X ocurrances
+                    numbers.confirmed = true;
+                    confirmed.add(link);
                 }
             }else{
-                numbers = new HashSet<>();
+                numbers = new Numbers();
                 numbers.add(number);
                 links.put(link, numbers);
                 created = true;
             }
         }
         if(numbers != null && found == 1 && created){ //confirm if found only one and link first time
-            numbers.add(CONFIRMED_MARKER);
-            added++;
+            numbers.confirmed = true;
+            confirmed.add(link);
         }
-        return added;
     }
     
+    /**
+     * Confirmed sequences run concurrently, up to {@code sequenceWorkers} at a
+     * time and {@code sequencesPerHost} from the same host; each counts as
+     * one unit of progress, and its successes are added to the task's once
+     * it ends. In streaming mode most were started while searching, and only
+     * the ones left, such as those restored from a checkpoint, start here.
+     * The {@code parallelism} downloads are split between the running
+     * sequences, which use the parent task's connection settings.
+     * Links whose sequence ended or was discarded before the checkpoint
+     * are already counted in its progress, and aren't started again.
+     */
     @Override
     public void postProcessing(TaskJournal journal, Downloader downloader){
-        if (links.isEmpty() || journal.isInterrupted()) return;
-        
-        boolean printTitle = true;
-        for (var entry : links.entrySet()) {
-            if(journal.isInterrupted()) break; //INTERRUPT EXIT POINT
-            final Set<String> numbers = entry.getValue();
-            if(!numbers.contains(".")) continue; //not confirmed sequence, don't progress here
-            
-            //PARSE NUMBERS
-            final TreeSet<Integer> values = new TreeSet<>();
-            boolean padding = false;
-            int endInZero = 0;
-            int maxLenght = 0;
-            for (String v : numbers) {
-                //TODO: number to big for integer -> numberMask_start = 'first-part-of-number'; val = 'parsed-last-index-5'
-                if('0' == v.charAt(0)) padding = true;
-                if('0' == v.charAt(v.length()-1)) endInZero++;
-                if(v.length() > maxLenght) maxLenght = v.length();
-                try{
-                    values.add(Integer.parseInt(v));
-                }catch(NumberFormatException ex){}
-            }
-            //if failed all conversions; or all end in '0' they are possibly resolutions (letting sequence fail is costlier)
-            if(values.isEmpty() || endInZero == values.size()){ 
-                journal.increaseProgress();
-                continue;
+        synchronized(links){
+            for (var entry : links.entrySet()) {
+                if(journal.isInterrupted()) break; //INTERRUPT EXIT POINT
+                if(!entry.getValue().confirmed) continue; //not confirmed sequence, don't progress here
+                if(entry.getValue().done) continue; //finished before the checkpoint
+                if(started != null && started.containsKey(entry.getKey())) continue; //streamed
+                startSequence(journal, downloader, entry.getKey());
             }
-            
-            if(printTitle) { //print only for first confirmed and not discarded
-                journal.reportTitle(TITLE_LOG);
-                printTitle = false;
-            } 
-            
-            //PREPARE TASK VALUES
-            final int start = Math.max(values.first()-lowerMargin, 0); 
-            final int end = values.last()+upperMargin;
-            final int size = end - start;
-            if(sequenceLimit > 0 && size > sequenceLimit){
-                journal.report(Level.WARNING, true, SEQUENCE_TOO_BIG_LOG_MASK, entry.getKey(), size);
-                continue;
-            }
-            final String numberMask = padding? String.format("%%0%dd", maxLenght) : "%d";
-            final String maskedLink = entry.getKey().getMaskedLink(numberMask, start);
-            
-            //SUB-TASK
-            journal.report(Level.INFO, false, SEQUENCE_START_LOG_MASK, entry.getKey(), start, end);
-            try {
-                final var subtask = new SequenceTask(maskedLink, end);
-                subtask.silent(true);
-                subtask.excludeNumbers(values); //already have copies of the ones found by the reverse search
-                subtask.setDestination(subfolder);
-                subtask.setSafeThreshold(values.last());
-                subtask.run();
-                final int downloaded = subtask.getSuccesses();
-                journal.addSuccesses(downloaded);
-                journal.report(Level.INFO, true, SEQUENCE_TOTAL_LOG_MASK, downloaded);
-            } catch (BoundsException | IOException ex) {
-                journal.report(Level.ERROR, true, SEQUENCE_FAILED_LOG);
+        }
+        if(scheduler != null) awaitSequences(journal); //without the lock: checkpoints are taken meanwhile
+    }
+    
+    private void startSequence(TaskJournal journal, Downloader downloader, Link link){
+        if(started == null) started = new HashMap<>();
+        final SequenceTask sequence = createSequence(journal, downloader, link, links.get(link));
+        started.put(link, sequence); //'null' if discarded
+        if(sequence == null){
+            links.get(link).done = true;
+            return;
+        }
+        
+        if(scheduler == null){
+            sequences = new ConcurrentHashMap<>(); //read by the scheduler threads
+            sequenceNumbers = new ConcurrentHashMap<>();
+            scheduler = new TaskScheduler(sequenceWorkers, sequencesPerHost);
+            scheduler.setListener(new SchedulerListener() {
+                @Override
+                public void taskStarted(Task task) {
+                    journal.report(Level.INFO, false, SEQUENCE_START_LOG_MASK, sequences.get(task), ((SequenceTask) task).getLowerBound(), ((SequenceTask) task).getUpperBound());
+                }
+
+                @Override
+                public void taskFinished(Task task) {
+                    final State state = task.getStatus();
+                    final boolean ended = state != State.WAITING && state != State.INTERRUPTED; //else restarted if restored
+                    if(ended) sequenceNumbers.get(task).done = true; //before progress, so a checkpoint won't count it twice
+                    final int downloaded = ((SequenceTask) task).getSuccesses();
+                    journal.addSuccesses(downloaded);
+                    journal.report(Level.INFO, ended, SEQUENCE_TOTAL_LOG_MASK, downloaded, sequences.get(task));
+                }
+            });
+        }
+        sequences.put(sequence, link);
+        sequenceNumbers.put(sequence, links.get(link));
+        scheduler.submit(sequence);
+    }
+    
+    /**
+     * @return the sequence to be run, or {@code null} if it was discarded
+     */
+    private SequenceTask createSequence(TaskJournal journal, Downloader downloader, Link link, Numbers numbers){
+        
+        //if all too big; or all end in '0' they are possibly resolutions (letting sequence fail is costlier)
+        if(numbers.size == 0 || numbers.endInZero() == numbers.size){ 
+            journal.increaseProgress();
+            return null;
+        }
+        
+        //SPLIT NUMBERS TOO BIG FOR INTEGER
+        long base = 0;
+        String fixed = "";
+        int width = numbers.width;
+        boolean padding = numbers.padded;
+        if(numbers.last() > Integer.MAX_VALUE){
+            final long lead = numbers.first()/SPLIT;
+            if(lead != numbers.last()/SPLIT){ //would need to carry into the fixed digits
+                journal.report(Level.WARNING, true, SEQUENCE_OVERFLOW_LOG_MASK, link, numbers.first(), numbers.last());
+                return null;
             }
+            base = lead*SPLIT;
+            fixed = padding? String.format("%0"+(width-SPLIT_DIGITS)+"d", lead) : Long.toString(lead);
+            width = SPLIT_DIGITS;
+            padding = true; //inner digits
+        }
+        final List<Integer> values = new ArrayList<>(numbers.size);
+        for (int i = 0; i < numbers.size; i++) {
+            values.add((int) (numbers.values[i]-base));
+        }
+
+        if(!titled) { //print only for first confirmed and not discarded
+            journal.reportTitle(TITLE_LOG);
+            titled = true;
+        } 
 
+        //PREPARE TASK VALUES
+        final int first = values.get(0), last = values.get(values.size()-1);
+        final int start = Math.max(first-lowerMargin, 0); 
+        final int end = (int) Math.min((long)last+upperMargin, base == 0? Integer.MAX_VALUE : SPLIT-1);
+        final int size = end - start;
+        if(sequenceLimit > 0 && size > sequenceLimit){
+            journal.report(Level.WARNING, true, SEQUENCE_TOO_BIG_LOG_MASK, link, size);
+            return null;
         }
+        final String numberMask = padding? String.format("%%0%dd", width) : "%d";
+        final String maskedLink = link.getMaskedLink(fixed, String.format(numberMask, start));
 
+        //SUB-TASK
+        try {
+            final var subtask = new SequenceTask(maskedLink, end);
+            subtask.silent(true);
+            subtask.setReportStatus(false);
+            subtask.setReportSuccesses(false);
+            subtask.setConnection(downloader); //timeouts, cooldown and indexes of the parent task
+            subtask.setParallelism(Math.max(parallelism/sequenceWorkers, DownloadPool.MIN_PARALLELISM));
+            subtask.excludeNumbers(values); //already have copies of the ones found by the reverse search
+            subtask.setDestination(subfolder);
+            subtask.setSafeThreshold(last);
+            numbers.base = base;
+            return subtask;
+        } catch (BoundsException | IOException ex) {
+            journal.report(Level.ERROR, true, SEQUENCE_FAILED_LOG);
+            return null;
+        }
+    }
+    
+    private void awaitSequences(TaskJournal journal){
+        try {
+            while(!scheduler.awaitAndClose(INTERRUPT_POLL)){
+                if(journal.isInterrupted()){ //INTERRUPT EXIT POINT
+                    scheduler.cancel();
+                    scheduler.awaitAndClose(); //running sequences can't be left writing
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            scheduler.cancel();
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    private void writeObject(ObjectOutputStream os) throws IOException{
+        synchronized(links){
+            os.defaultWriteObject();
+        }
     }
 
     // <editor-fold defaultstate="collapsed" desc=" SETTERS "> 
@@ -248,6 +462,30 @@ public class MoreSubtask extends BasicGoogleSubtask{
         if(amount < 0) throw new IllegalArgumentException("sequence limit "+amount+" < 0");
         this.sequenceLimit = amount;
     }
+    
+    public void setSequenceWorkers(int total, int perHost) {
+        if(total < TaskScheduler.MIN_MAX_RUNNING) throw new IllegalArgumentException("sequence workers "+total+" < "+TaskScheduler.MIN_MAX_RUNNING);
+        if(perHost < TaskScheduler.MIN_MAX_PER_HOST) throw new IllegalArgumentException("sequences per host "+perHost+" < "+TaskScheduler.MIN_MAX_PER_HOST);
+        this.sequenceWorkers = total;
+        this.sequencesPerHost = perHost;
+    }
+    
+    /**
+     * @param downloads total of all running sequences; each gets an equal
+     * share, but at least {@code DownloadPool.MIN_PARALLELISM}
+     */
+    public void setParallelism(int downloads) {
+        if(downloads < DownloadPool.MIN_PARALLELISM) throw new IllegalArgumentException("parallelism "+downloads+" < "+DownloadPool.MIN_PARALLELISM);
+        this.parallelism = downloads;
+    }
+    
+    /**
+     * When set, each sequence is downloaded as soon as it is confirmed, 
+     * while the next images are searched, instead of after all of them.
+     */
+    public void setStreaming(boolean b) {
+        this.streaming = b;
+    }
     // </editor-fold>
 
     // <editor-fold defaultstate="collapsed" desc=" GETTERS "> 
@@ -19,79 +19,194 @@ package rubensandreoli.imagedownloader.tasks;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
 import rubensandreoli.commons.others.Level;
+import rubensandreoli.commons.others.Logger;
 import rubensandreoli.commons.utils.FileUtils;
 import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
 import rubensandreoli.imagedownloader.tasks.support.HttpUtils;
+import rubensandreoli.imagedownloader.tasks.support.PageCache;
+import rubensandreoli.imagedownloader.tasks.support.VirtualThreads;
 
+/**
+ * Crawls breadth-first: pages wait in a shared frontier, each with its own
+ * remaining depth, and are fetched by a pool of page workers that hand
+ * the images found to the download pool.
+ * 
+ * References:
+ * https://en.wikipedia.org/wiki/Breadth-first_search
+ * https://stackoverflow.com/questions/6992608/why-there-is-no-concurrenthashset-against-concurrenthashmap
+ * 
+ * @author Rubens A. Andreoli Jr.
+ */
 public class ScraperTask extends DownloadTask{
     
     // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS "> 
     public static final int DEFAULT_DEPTH_LIMIT = 3;
     public static final int DEFAULT_MIN_FILESIZE = 25600;
+    public static final int DEFAULT_PAGE_WORKERS = 4;
+    public static final int MIN_PAGE_WORKERS = 1;
+    public static final boolean DEFAULT_PAGE_CACHE = true;
     
     private static final String SITE_MASK = "%s://%s"; //protocol; authority
+    private static final int POLL_TIMEOUT = 200; //ms
     
     private static final String INVALID_URL_MSG = "Invalid URL.";
     private static final String INVALID_BOUNDS_MSG_MASK = "Search depth has a limit of %d";
     
     private static final String CONNECTION_LOG_MASK = "Connected to [%s]"; //url
+    private static final String NOT_MODIFIED_LOG_MASK = "Reusing unmodified [%s]"; //url
     private static final String CONNECTION_FAILED_LOG_MASK = "Failed connecting to [%s]"; //url
     // </editor-fold>
 
     // <editor-fold defaultstate="collapsed" desc=" PAGE "> 
+    /**
+     * Extracts image and link URLs in a single pass over the document,
+     * without keeping a reference to it, so the DOM can be collected
+     * before the images are downloaded and the links crawled.
+     * <br>
+     * This is not streaming extraction: jsoup 1.13.1 has no streaming parser
+     * (its tokeniser isn't public), so the full DOM is still built for each
+     * page and peak memory per page is unchanged; only how long it lives is.
+     */
     public static class Webpage{
 
         public final String domain;
         public final String url;
-        public final Document document;
-        public final Elements imgTags;
-        public final Elements aTags;
+        private final Set<String> images = new HashSet<>();
+        private final Set<String> links = new HashSet<>();
+
+        public Webpage(String domain, String url, Set<String> images, Set<String> links) {
+            this.domain = domain;
+            this.url = url;
+            this.images.addAll(images);
+            this.links.addAll(links);
+        }
 
         public Webpage(String domain, String url, Document document) {
             this.domain = domain;
             this.url = url;
-            this.document = document;
-            imgTags = document.getElementsByTag("img");
-            aTags = document.getElementsByTag("a");
+            NodeTraversor.traverse(new NodeVisitor() {
+                @Override
+                public void head(Node node, int depth) {
+                    if(!(node instanceof Element)) return;
+                    switch(((Element) node).normalName()){
+                        case "img":
+                            images.add(node.absUrl("src"));
+                            break;
+                        case "a":
+                            final String linkUrl = node.absUrl("href");
+                            if(linkUrl.matches(FileUtils.IMAGES_REGEX)) images.add(linkUrl);
+                            if(linkUrl.startsWith(domain)) links.add(linkUrl); //process only links from same site
+                            break;
+                    }
+                }
+
+                @Override
+                public void tail(Node node, int depth) {}
+            }, document);
         }
 
         public Set<String> parseImages(){
-            final Set<String> images = new HashSet<>();
-            imgTags.forEach(e -> images.add(e.absUrl("src")));
-            for (Element link : aTags) {
-                final String linkUrl = link.absUrl("href");
-                if(linkUrl.matches(FileUtils.IMAGES_REGEX)){
-                    images.add(linkUrl);
-                }
-            }
             return images;
         }
 
         public Set<String> parseLinks(){
-            final Set<String> links = new HashSet<>();
-            for (Element link : aTags) {
-                final String linkUrl = link.absUrl("href");
-                if(linkUrl.startsWith(domain)){ //process only links from same site
-                    links.add(linkUrl);
-                }
-            }
             return links;
         }
 
     }
     // </editor-fold>
+    
+    // <editor-fold defaultstate="collapsed" desc=" PAGE REQUEST "> 
+    private static class PageRequest{
+        
+        private final String url;
+        private final int depth; //levels left to crawl below this page
+        private final AtomicInteger remaining = new AtomicInteger(1); //the page itself and its downloads
+
+        private PageRequest(String url, int depth) {
+            this.url = url;
+            this.depth = depth;
+        }
+        
+    }
+    // </editor-fold>
+    
+    // <editor-fold defaultstate="collapsed" desc=" CHECKPOINT "> 
+    private static class ScraperCheckpoint extends Checkpoint{
+        private static final long serialVersionUID = 1L;
+        
+        private final String url;
+        private final int depthLimit;
+        private final int depth;
+        private final int pageWorkers;
+        private final boolean pageCache;
+        private final HashSet<String> visited;
+        private final HashMap<String, Integer> open; //url; depth
+
+        private ScraperCheckpoint(ScraperTask task) {
+            super(task);
+            url = task.url;
+            depthLimit = task.depthLimit;
+            depth = task.depth;
+            pageWorkers = task.pageWorkers;
+            pageCache = task.pageCache != null;
+            final Set<String> processed = task.processed;
+            final Map<String, Integer> unfinished = task.open;
+            if(processed != null && unfinished != null){ //running
+                visited = new HashSet<>(processed); //before open pages: a page can't be open but not visited
+                open = new HashMap<>(unfinished);
+            }else{
+                visited = task.visited;
+                open = task.resumed;
+            }
+        }
+
+        @Override
+        public DownloadTask restore() throws IOException {
+            final ScraperTask task = restore(new ScraperTask(url, depthLimit));
+            try {
+                task.setDepth(depth);
+            } catch (BoundsException ex) {
+                throw new IOException(ex);
+            }
+            task.setPageWorkers(pageWorkers);
+            task.setPageCache(pageCache);
+            task.visited = visited;
+            task.resumed = open;
+            return task;
+        }
+        
+    }
+    // </editor-fold>
      
     private final String url;
     private final String domain;
     private final int depthLimit;
     private int depth = 0;
-    private Set<String> processed;
+    private int pageWorkers = DEFAULT_PAGE_WORKERS;
+    private PageCache pageCache = DEFAULT_PAGE_CACHE? new PageCache() : null; //'null' won't cache
+    private volatile Set<String> processed; //visited
+    private volatile Map<String, Integer> open; //url; depth; queued or being processed
+    private BlockingQueue<PageRequest> frontier;
+    private HashSet<String> visited; //'null' unless restored
+    private HashMap<String, Integer> resumed; //'null' unless restored
+    private AtomicInteger pending; //queued or being processed
 
     public ScraperTask(String url, int depthLimit) throws MalformedURLException{
         if(depthLimit < 0) throw new IllegalArgumentException(depthLimit+" < 0");
@@ -113,43 +228,124 @@ public class ScraperTask extends DownloadTask{
     
     @Override
     protected void run() {
-        processed = new HashSet<>();
-        processPage(url);
+        indexFolder(getDestination());
+        processed = ConcurrentHashMap.newKeySet();
+        open = new ConcurrentHashMap<>();
+        frontier = new LinkedBlockingQueue<>();
+        pending = new AtomicInteger();
+        if(resumed != null){ //continue from checkpoint
+            processed.addAll(visited);
+            resumed.forEach((pageUrl, pageDepth) -> {
+                processed.remove(pageUrl);
+                enqueue(pageUrl, pageDepth);
+            });
+            visited = null;
+            resumed = null;
+        }else{
+            enqueue(url, depth);
+        }
+        
+        final ExecutorService workers = VirtualThreads.newFixedThreadPool(pageWorkers);
+        for (int i = 0; i < pageWorkers; i++) {
+            workers.execute(this::crawl);
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            workers.shutdownNow();
+        }
     }
 
     @Override
     protected void close() {
         processed = null;
+        open = null;
+        frontier = null;
+    }
+    
+    @Override
+    public Checkpoint checkpoint() {
+        return new ScraperCheckpoint(this);
+    }
+    
+    private void enqueue(String url, int depth){
+        if(!processed.add(url)) return; //already visited or queued
+        pending.incrementAndGet(); //before queuing, so the count can't reach zero while work remains
+        open.put(url, depth);
+        journal.increaseWorkload();
+        frontier.add(new PageRequest(url, depth));
+    }
+    
+    private void crawl(){
+        while(!interrupted()){ //INTERRUPT EXIT POINT
+            final PageRequest request;
+            try {
+                request = frontier.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if(request == null){
+                if(pending.get() == 0) break; //crawl finished
+                continue;
+            }
+            try{
+                processPage(request);
+            }catch(RuntimeException ex){
+                Logger.log.print(Level.CRITICAL, "Unexpected exception processing page "+request.url, ex);
+            }finally{
+                finished(request);
+                pending.decrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Closes the page once it and every download submitted from it are done,
+     * so checkpoints taken while its images are queued keep it open.
+     */
+    private void finished(PageRequest request){
+        if(request.remaining.decrementAndGet() == 0 && !interrupted()) open.remove(request.url); //interrupted pages may be incomplete
     }
         
-    private void processPage(String url){
-        if(processed.contains(url)) return;
-        processed.add(url);
+    private void processPage(PageRequest request){
         try {
             //CONNECTION
-            final Document d = HttpUtils.getDocument(url);
-            journal.report(Level.INFO, false, CONNECTION_LOG_MASK, url);
-            Webpage page = new Webpage(domain, url, d);
+            final Webpage page = loadPage(request.url);
             
             //DOWNLOAD
             final Set<String> images = page.parseImages();
             journal.addWorkload(images.size());
-            downloadImages(images);
+            downloadImages(request, images);
             if(interrupted()) return; //INTERRUPT EXIT POINT
 
             //CRAWL
-            if(depth > 0){
-                depth--;
-                final Set<String> links = page.parseLinks();
-                journal.addWorkload(links.size());
-                links.forEach(this::processPage);
+            if(request.depth > 0){
+                page.parseLinks().forEach(link -> enqueue(link, request.depth-1));
             }
         } catch (IOException ex) {
-            journal.report(Level.ERROR, true, CONNECTION_FAILED_LOG_MASK, url);
+            journal.report(Level.ERROR, true, CONNECTION_FAILED_LOG_MASK, request.url);
         }
     }
 
-    private void downloadImages(Set<String> urls){
+    private Webpage loadPage(String pageUrl) throws IOException{
+        final PageCache.Entry cached = pageCache == null? null : pageCache.get(pageUrl, domain);
+        final HttpUtils.DocumentResponse response = cached == null?
+                HttpUtils.getDocument(pageUrl, null, null) : 
+                HttpUtils.getDocument(pageUrl, cached.etag, cached.lastModified);
+        if(response.isNotModified()){
+            journal.report(Level.INFO, true, NOT_MODIFIED_LOG_MASK, pageUrl);
+            return new Webpage(domain, pageUrl, cached.images, cached.links);
+        }
+        final Webpage page = new Webpage(domain, pageUrl, response.document); //DOM discarded after parsing
+        journal.report(Level.INFO, true, CONNECTION_LOG_MASK, pageUrl);
+        if(pageCache != null){
+            pageCache.put(new PageCache.Entry(pageUrl, domain, response.etag, response.lastModified, page.parseImages(), page.parseLinks()));
+        }
+        return page;
+    }
+    
+    private void downloadImages(PageRequest request, Set<String> urls){
         for (String url : urls) {
             if(interrupted()) break; //INTERRUPT
             
@@ -158,9 +354,11 @@ public class ScraperTask extends DownloadTask{
             final String extension = FileUtils.getExtension(url, ".jpg");
             
             //DOWNLOAD
-            if(downloader.download(url, getDestination(), filename, extension) != null){
-                journal.increaseSuccesses();
-            }
+            request.remaining.incrementAndGet();
+            submitDownload(url, getDestination(), filename, extension, (u, file) -> { //not called for cancelled jobs
+                if(file != null) journal.increaseSuccesses();
+                finished(request);
+            });
         }
     }
 
@@ -169,9 +367,23 @@ public class ScraperTask extends DownloadTask{
         if(depth < 0 || depth > depthLimit) throw new BoundsException(String.format(INVALID_BOUNDS_MSG_MASK, depthLimit));
         this.depth = depth;
     }
+    
+    public void setPageCache(boolean b){
+        pageCache = b? new PageCache() : null;
+    }
+    
+    public void setPageWorkers(int amount){
+        if(amount < MIN_PAGE_WORKERS) throw new IllegalArgumentException(amount+" < "+MIN_PAGE_WORKERS);
+        pageWorkers = amount;
+    }
     // </editor-fold>
     
     // <editor-fold defaultstate="collapsed" desc=" GETTERS "> 
+    @Override
+    public String getHost() {
+        return HttpUtils.getHost(url);
+    }
+
     public String getURL() {
         return url;
     }
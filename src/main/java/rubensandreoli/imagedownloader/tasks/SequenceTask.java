@@ -16,21 +16,31 @@
  */
 package rubensandreoli.imagedownloader.tasks;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import rubensandreoli.commons.others.CachedFile;
 import rubensandreoli.commons.others.Level;
 import rubensandreoli.commons.utils.FileUtils;
 import rubensandreoli.commons.utils.IntegerUtils;
 import rubensandreoli.imagedownloader.tasks.exceptions.BoundsException;
+import rubensandreoli.imagedownloader.tasks.support.HttpUtils;
 
 /**
  * References:
  https://stackoverflow.com/questions/50359350/can-you-check-whether-a-name-is-really-an-image-in-java
  http://jubin.tech/articles/2018/12/05/Detect-image-format-using-java.html
  https://stackoverflow.com/questions/2190161/difference-between-java-lang-runtimeexception-and-java-lang-exception
+ https://en.wikipedia.org/wiki/Re-order_buffer
+ https://en.wikipedia.org/wiki/Exponential_search
  * 
  * @author Rubens A. Andreoli Jr.
  */
@@ -39,7 +49,13 @@ public class SequenceTask extends DownloadTask{
     // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS "> 
     public static final int DEFAULT_FAIL_THRESHOLD = 10;
     public static final int DEFAULT_MIN_FILESIZE = 25600; //bytes
+    public static final boolean DEFAULT_PROBE = false;
+    public static final boolean DEFAULT_AUTO_BOUND = false;
+    public static final int DEFAULT_GAP_LIMIT = 4096; //indexes
+    public static final int MIN_GAP_LIMIT = 1; //indexes
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
     private static final int REPEAT_LIMIT = 2; //+1 files same size
+    private static final int MIN_GAP_MISSES = 4; //successive; shorter holes are walked over
     
     private static final String URL_MASK = "%s/%s%s"; //path, name, extension
     private static final String URL_REGEX = "^(https*:\\/\\/)(.*\\/)(.{1,})(\\.[a-z]{3,})$"; //file url
@@ -49,22 +65,100 @@ public class SequenceTask extends DownloadTask{
     private static final String URL_MARKER_REGEX = "^[^\\"+LOWER_MARKER+"\\"+UPPER_MARKER+"]+"+MARKER_REGEX+"[^\\"+LOWER_MARKER+"\\"+UPPER_MARKER+"\\/]+$"; //only one marker
     
     private static final String REAPAT_LOG = "Downloading repeated files. Sequence was interrupted!";
+    private static final String DISCARD_LOG_MASK = "Discarded %d download(s) past the end of the sequence"; //amount
+    private static final String GAP_LOG_MASK = "Skipped gap [%d:%d] after %d probe(s)"; //first, last, probes
+    private static final String END_LOG_MASK = "No image found in the %d index(es) after %d. Sequence ended!"; //gap limit, last tried
     
     private static final String INVALID_URL_MSG = "Invalid image URL.";
     private static final String MISSING_MARKERS_MSG = "Image URL missing markers "+LOWER_MARKER+"'initial_value'"+UPPER_MARKER+".";
     private static final String INVALID_UPPER_BOUND_MSG = "Upper bound must be greater than or equal to the lower bound.";
     // </editor-fold>
     
+    // <editor-fold defaultstate="collapsed" desc=" SLOT "> 
+    private static class Slot{ //index in flight, committed in order
+        
+        private final int index;
+        private final Future<CachedFile> result;
+
+        private Slot(int index, Future<CachedFile> result) {
+            this.index = index;
+            this.result = result;
+        }
+        
+        private CachedFile get(){
+            try {
+                return result.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException ex) {}
+            return null;
+        }
+        
+    }
+    // </editor-fold>
+    
+    // <editor-fold defaultstate="collapsed" desc=" CHECKPOINT "> 
+    private static class SequenceCheckpoint extends Checkpoint{
+        private static final long serialVersionUID = 1L;
+        
+        private final String url;
+        private final int upperBound;
+        private final int resumeIndex;
+        private final HashSet<Integer> excluding;
+        private final int safeThreshold;
+        private final boolean probe;
+        private final boolean autoBound;
+        private final int gapLimit;
+
+        private SequenceCheckpoint(SequenceTask task) {
+            super(task);
+            url = task.url;
+            upperBound = task.upperBound;
+            resumeIndex = task.resumeIndex;
+            final Set<Integer> excluded = task.excluding; //nulled when closed
+            excluding = excluded == null? null : new HashSet<>(excluded);
+            safeThreshold = task.safeThreshold;
+            probe = task.probe;
+            autoBound = task.autoBound;
+            gapLimit = task.gapLimit;
+        }
+
+        @Override
+        public DownloadTask restore() throws IOException {
+            try {
+                final SequenceTask task = restore(new SequenceTask(url, upperBound));
+                if(excluding != null) task.excludeNumbers(excluding);
+                task.setSafeThreshold(safeThreshold);
+                task.setProbe(probe);
+                task.setAutoBound(autoBound);
+                task.setGapLimit(gapLimit);
+                task.resumeIndex = resumeIndex;
+                return task;
+            } catch (BoundsException ex) {
+                throw new IOException(ex);
+            }
+        }
+        
+    }
+    // </editor-fold>
+    
+    private final String url; //with markers
     private final String parent;
     private final String maskedFilename; //with '%d' where number is supposed to be
     private final String extension; //with dot at start
     private final int lowerBound, upperBound;
-    private Set<Integer> excluding; //'null' won't exclude any values
+    private volatile Set<Integer> excluding; //'null' won't exclude any values; concurrent, may grow while running
     private int safeThreshold = 0; //start counting fails after; value '0' never safe
+    private boolean probe = DEFAULT_PROBE; //request the first bytes before downloading
+    private boolean autoBound = DEFAULT_AUTO_BOUND; //skip gaps instead of failing
+    private int gapLimit = DEFAULT_GAP_LIMIT; //largest gap looked across
+    private volatile int stopIndex = Integer.MAX_VALUE; //indexes from here on are not fetched
+    private volatile int resumeIndex; //first index not committed yet
 
     public SequenceTask(String url, int upperBound) throws MalformedURLException, BoundsException{
         if(!url.matches(URL_REGEX)) throw new MalformedURLException(INVALID_URL_MSG);
         if(!url.matches(URL_MARKER_REGEX)) throw new MalformedURLException(MISSING_MARKERS_MSG);
+        this.url = url;
         
         //URL PARENT AND LEAF
         parent = FileUtils.getParent(url);
@@ -76,6 +170,7 @@ public class SequenceTask extends DownloadTask{
         lowerBound = IntegerUtils.parseInteger(name.substring(numberIndex, numberIndex+numberLenght));
         if(upperBound < lowerBound) throw new BoundsException(INVALID_UPPER_BOUND_MSG);
         this.upperBound = upperBound;
+        resumeIndex = lowerBound;
         
         //MASKED FILENAME AND EXTENSION
         String numberMask = "%d";
@@ -86,31 +181,82 @@ public class SequenceTask extends DownloadTask{
         setFailThreshold(DEFAULT_FAIL_THRESHOLD);
         setMinFilesize(DEFAULT_MIN_FILESIZE);
     }
+    
+    /**
+     * Sequence without a known end, in auto bound mode.
+     */
+    public SequenceTask(String url) throws MalformedURLException, BoundsException{
+        this(url, UNBOUNDED);
+        autoBound = true;
+    }
 
+    /**
+     * Keeps up to {@code parallelism} indexes in flight, but commits their
+     * results in index order, so the fail threshold and the repeated size
+     * checks see the same sequence a serial run would. Files fetched past
+     * the point where the sequence stops are deleted.
+     * <br>
+     * In auto bound mode, reaching the fail threshold doesn't end the task:
+     * no more indexes are fetched, the ones in flight are committed, and then
+     * {@link #gallop(int, int)} looks for where the sequence continues. At least
+     * {@code MIN_GAP_MISSES} successive misses, and as many as the window,
+     * are needed, so isolated holes don't stop the window for a search.
+     * The workload then grows with the indexes tried, since the end is unknown.
+     */
     @Override
     protected void run() {
-        journal.setWorkload(upperBound-lowerBound+1); //+1: end inclusive;
+        journal.setWorkload(autoBound? 0 : upperBound-resumeIndex+1); //+1: end inclusive;
+        stopIndex = Integer.MAX_VALUE;
+        indexFolder(getDestination());
         
+        final int window = getParallelism();
+        final int gapMisses = Math.max(getFailThreshold()+1, Math.max(window, MIN_GAP_MISSES));
+        final Deque<Slot> slots = new ArrayDeque<>(window);
+        long next = resumeIndex; //can pass an upper bound of Integer.MAX_VALUE
         long lastSize = 0;
+        int runFirst = -1, runLast = -1; //images found since the last gap
         int same = 0;
-        for(int i=lowerBound; i <= upperBound; i++){
+        while(true){
+            //FILL WINDOW
+            while(slots.size() < window && next <= upperBound && !(autoBound && inGap((int)next, gapMisses))){
+                final int i = (int) next++;
+                if(isExcluded(i)) continue; 
+                if(autoBound) journal.increaseWorkload();
+                slots.add(new Slot(i, submitJob(() -> fetch(i))));
+            }
+            final Slot slot = slots.poll();
+            if(slot == null){
+                if(autoBound && next <= upperBound && !interrupted()){ //window drained in a gap
+                    final int edge = gallop((int)(next-1), runFirst == -1? 1 : runLast-runFirst+1);
+                    runFirst = -1;
+                    if(edge != -1){
+                        journal.resetFails();
+                        next = resumeIndex = edge;
+                        continue;
+                    }
+                }
+                resumeIndex = (int) Math.min(next, Integer.MAX_VALUE); //done
+                break;
+            }
+            
             //CHECKS
             if(interrupted()) break; //INTERRUPT EXIT POINT
-            if(i > safeThreshold && failed()) break;
-            if(excluding != null && excluding.contains(i)) continue; 
-            
-            //CREATE URL AND FILE NAME
-            final String formattedFilename = String.format(maskedFilename, i);
-            final String imageUrl = String.format(URL_MASK, parent, formattedFilename, extension);
+            if(!autoBound && slot.index > safeThreshold && failed()){
+                slots.addFirst(slot);
+                discard(slot.index, slots);
+                break;
+            }
             
-            //DOWNLOAD
-            CachedFile file;
-            if((file = downloader.download(imageUrl, getDestination(), formattedFilename, extension)) != null){
+            //COMMIT
+            final CachedFile file = slot.get();
+            resumeIndex = (int) Math.min(slot.index+1L, Integer.MAX_VALUE);
+            if(file != null){
 
                 //CHECK IF SAME SIZE
                 if(file.length() == lastSize){
                     if(++same == REPEAT_LIMIT){
                         journal.report(Level.WARNING, false, REAPAT_LOG);
+                        discard(slot.index+1, slots);
                         break;
                     }
                 }else{
@@ -118,31 +264,167 @@ public class SequenceTask extends DownloadTask{
                     same = 0;
                 }
                 
+                if(runFirst == -1) runFirst = slot.index;
+                runLast = slot.index;
                 journal.increaseSuccesses();
                 journal.resetFails(); //successive fails
+            }else if(downloader.isKnown(getUrl(slot.index), getDestination())){
+                journal.resetFails(); //saved to its own file on a previous run
             }else{
-                journal.increaseFails();
+                journal.increaseFails(); //duplicates too: hosts often serve one placeholder for missing indexes
             }
         }
     }
+    
+    private CachedFile fetch(int index){
+        if(index >= stopIndex) return null; //sequence already stopped
+        
+        //CREATE URL AND FILE NAME
+        final String formattedFilename = String.format(maskedFilename, index);
+        final String imageUrl = getUrl(index);
+
+        //PROBE
+        if(probe && !downloader.probe(imageUrl)) return null;
+
+        //DOWNLOAD
+        return downloader.download(imageUrl, getDestination(), formattedFilename, extension);
+    }
+    
+    private boolean inGap(int index, int misses){
+        return index > safeThreshold && journal.getFails() >= misses;
+    }
+    
+    /**
+     * Probes {@code last}+1, +2, +4, ... for an image, then binary searches
+     * the first one between the last miss and the hit; so crossing a gap
+     * takes about 2*log2(gap) requests, instead of one per index.
+     * <br>
+     * Probes are never further apart than the run of images before the gap,
+     * so a following run at least as long can't be stepped over; a gap much
+     * longer than that run costs about gap/run requests.
+     * 
+     * @param last index already tried, and missed
+     * @param run length of the run of images before the gap
+     * @return first index found after {@code last}, or {@code -1} if none
+     * up to {@code gapLimit} indexes away
+     */
+    private int gallop(int last, int run){
+        final long limit = Math.min((long)last+gapLimit, upperBound);
+        final long maxStep = Integer.highestOneBit(Math.max(run, 1));
+        long miss = last, hit = -1;
+        int probes = 0;
+        for(long offset = 1; last+offset <= limit; offset += Math.min(offset, maxStep)){
+            if(interrupted()) return -1;
+            final long index = last+offset;
+            probes++;
+            if(isLive((int)index)){
+                hit = index;
+                break;
+            }
+            miss = index;
+        }
+        if(hit == -1 && miss < limit && !interrupted()){ //limit is not a power of two away
+            probes++;
+            if(isLive((int)limit)) hit = limit;
+            else miss = limit;
+        }
+        if(hit == -1){
+            journal.report(Level.INFO, false, END_LOG_MASK, miss-last, last);
+            return -1;
+        }
+        while(hit-miss > 1){ //edge in (miss, hit]
+            if(interrupted()) return -1;
+            final long mid = (miss+hit) >>> 1;
+            probes++;
+            if(isLive((int)mid)) hit = mid;
+            else miss = mid;
+        }
+        if(hit > last+1) journal.report(Level.INFO, false, GAP_LOG_MASK, last+1, hit-1, probes);
+        return (int)hit;
+    }
+    
+    private boolean isLive(int index){
+        journal.increaseWorkload();
+        if(isExcluded(index)){
+            journal.increaseProgress();
+            return false;
+        }
+        final String imageUrl = getUrl(index);
+        if(downloader.isKnown(imageUrl, getDestination()) || downloader.probe(imageUrl)){
+            journal.increaseProgress(); //only misses are reported
+            return true;
+        }
+        return false;
+    }
+    
+    private boolean isExcluded(int index){
+        final Set<Integer> excluded = excluding;
+        return excluded != null && excluded.contains(index);
+    }
+    
+    String getUrl(int index){ //package visible for benchmarks
+        return String.format(URL_MASK, parent, String.format(maskedFilename, index), extension);
+    }
+    
+    private void discard(int from, Deque<Slot> slots){
+        stopIndex = from;
+        int discarded = 0;
+        for(Slot slot : slots){
+            final CachedFile file = slot.get(); //in flight jobs can't be left writing
+            if(file != null && downloader.discard(file, getUrl(slot.index), getDestination())) discarded++;
+        }
+        if(discarded > 0) journal.report(Level.INFO, false, DISCARD_LOG_MASK, discarded);
+    }
 
     @Override
     protected void close() {
         excluding = null;
     }
+    
+    @Override
+    public Checkpoint checkpoint() {
+        return new SequenceCheckpoint(this);
+    }
 
     // <editor-fold defaultstate="collapsed" desc=" SETTERS "> 
+    /**
+     * Safe to call from other threads while the task runs.
+     */
     public void excludeNumbers(Collection<Integer> values){
-        if(excluding == null) excluding = new HashSet<>();
-        excluding.addAll(values);
+        Set<Integer> excluded = excluding;
+        if(excluded == null) excluding = excluded = ConcurrentHashMap.newKeySet();
+        excluded.addAll(values);
     }
     
     public void setSafeThreshold(int value){
         safeThreshold = value;
     }
+    
+    public void setProbe(boolean b){
+        probe = b;
+    }
+    
+    /**
+     * When set, gaps longer than the fail threshold are crossed by probing
+     * further and further ahead, and the task only ends when no image is
+     * found within {@code gapLimit} indexes, or at the upper bound.
+     */
+    public void setAutoBound(boolean b){
+        autoBound = b;
+    }
+    
+    public void setGapLimit(int indexes){
+        if(indexes < MIN_GAP_LIMIT) throw new IllegalArgumentException(indexes+" < "+MIN_GAP_LIMIT);
+        gapLimit = indexes;
+    }
     // </editor-fold>
     
     // <editor-fold defaultstate="collapsed" desc=" GETTERS "> 
+    @Override
+    public String getHost() {
+        return HttpUtils.getHost(url);
+    }
+
     public String getMaskedName() {
         return maskedFilename+extension;
     }
@@ -154,6 +436,10 @@ public class SequenceTask extends DownloadTask{
     public int getUpperBound() {
         return upperBound;
     }
+    
+    public boolean isAutoBound() {
+        return autoBound;
+    }
     // </editor-fold>
 
 }
@@ -27,5 +27,13 @@ public interface Task {
     
     void setProgressListener(ProgressListener listener);
     State getStatus();
+    
+    /**
+     * @return the host most requests go to, so tasks on the same site can be
+     * kept from running together; {@code null} if there is none
+     */
+    default String getHost(){
+        return null;
+    }
       
 }
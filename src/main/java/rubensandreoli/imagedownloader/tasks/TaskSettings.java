@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks;
+
+import rubensandreoli.commons.others.Configuration;
+import rubensandreoli.imagedownloader.tasks.support.DownloadPool;
+import rubensandreoli.imagedownloader.tasks.support.Downloader;
+import rubensandreoli.imagedownloader.tasks.support.Searcher;
+import rubensandreoli.imagedownloader.tasks.support.TaskScheduler;
+
+/**
+ * Task settings from the configuration file, applied the same way to tasks
+ * created in the window and by the headless runner.
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class TaskSettings {
+
+    // <editor-fold defaultstate="collapsed" desc=" CONFIGURATIONS ">
+    public static final int CONNECTION_TIMEOUT;
+    public static final int READ_TIMEOUT;
+    public static final int MIN_COOLDOWN;
+    public static final int MAX_COOLDOWN;
+    public static final int PARALLELISM;
+    public static final boolean DEDUPLICATE;
+    public static final boolean REMEMBER_URLS;
+    public static final boolean REVALIDATE;
+
+    public static final int SEQUENCE_FAIL_THRESHOLD;
+    public static final int SEQUENCE_MIN_FILESIZE;
+    public static final boolean SEQUENCE_PROBE;
+    public static final boolean SEQUENCE_AUTO_BOUND;
+    public static final int SEQUENCE_GAP_LIMIT;
+
+    public static final int SCRAPER_DEPTH_LIMIT;
+    public static final int SCRAPER_MIN_FILESIZE;
+    public static final int SCRAPER_PAGE_WORKERS;
+    public static final boolean SCRAPER_PAGE_CACHE;
+
+    public static final int GOOGLE_FAIL_THRESHOLD;
+    public static final String GOOGLE_LINK_TEXT; //pt-br
+    public static final int GOOGLE_MIN_FILESIZE; //bytes
+    public static final int GOOGLE_SEARCH_WORKERS;
+    public static final String LARGER_SUBFOLDER;
+    public static final double LARGER_FILESIZE_RATIO; //to source image
+    public static final double LARGER_DIMENSION_RATIO;
+    public static final boolean LARGER_SOURCE_NAME;
+    public static final String MORE_SUBFOLDER;
+    public static final int MORE_LOWER_MARGIN;
+    public static final int MORE_UPPER_MARGIN;
+    public static final int MORE_MIN_DIMENSION;
+    public static final int MORE_SEQUENCE_LIMIT;
+    public static final int MORE_SEQUENCE_WORKERS;
+    public static final int MORE_SEQUENCES_PER_HOST;
+    public static final boolean MORE_STREAMING;
+    static{
+        CONNECTION_TIMEOUT = Configuration.values.get("connection_timeout", Downloader.DEFAULT_CONNECTION_TIMEOUT, 500);
+        READ_TIMEOUT = Configuration.values.get("read_timout",  Downloader.DEFAULT_READ_TIMEOUT, 1000); //misspelled key kept: saved settings use it
+        MIN_COOLDOWN = Configuration.values.get("connection_cooldown_min", Downloader.DEFAULT_MIN_COOLDOWN, 0);
+        MAX_COOLDOWN = Configuration.values.get("connection_cooldown_max", Downloader.DEFAULT_MAX_COOLDOWN, MIN_COOLDOWN);
+        PARALLELISM = Configuration.values.get("download_threads", DownloadPool.DEFAULT_PARALLELISM, DownloadPool.MIN_PARALLELISM);
+        DEDUPLICATE = Configuration.values.get("duplicates_index", Downloader.DEFAULT_DEDUPLICATE);
+        REMEMBER_URLS = Configuration.values.get("urls_index", Downloader.DEFAULT_REMEMBER_URLS);
+        REVALIDATE = Configuration.values.get("urls_revalidate", Downloader.DEFAULT_REVALIDATE);
+
+        SEQUENCE_FAIL_THRESHOLD = Configuration.values.get("sequence:fails_threshold", SequenceTask.DEFAULT_FAIL_THRESHOLD, 0);
+        SEQUENCE_MIN_FILESIZE = Configuration.values.get("sequence:filesize_min", SequenceTask.DEFAULT_MIN_FILESIZE, 0);
+        SEQUENCE_PROBE = Configuration.values.get("sequence:probe", SequenceTask.DEFAULT_PROBE);
+        SEQUENCE_AUTO_BOUND = Configuration.values.get("sequence:auto_bound", SequenceTask.DEFAULT_AUTO_BOUND);
+        SEQUENCE_GAP_LIMIT = Configuration.values.get("sequence:gap_limit", SequenceTask.DEFAULT_GAP_LIMIT, SequenceTask.MIN_GAP_LIMIT);
+
+        SCRAPER_DEPTH_LIMIT = Configuration.values.get("scraper:depth_limit", ScraperTask.DEFAULT_DEPTH_LIMIT, 0);
+        SCRAPER_MIN_FILESIZE = Configuration.values.get("scraper:filesize_min", ScraperTask.DEFAULT_MIN_FILESIZE, 0);
+        SCRAPER_PAGE_WORKERS = Configuration.values.get("scraper:page_workers", ScraperTask.DEFAULT_PAGE_WORKERS, ScraperTask.MIN_PAGE_WORKERS);
+        SCRAPER_PAGE_CACHE = Configuration.values.get("scraper:page_cache", ScraperTask.DEFAULT_PAGE_CACHE);
+
+        GOOGLE_FAIL_THRESHOLD = Configuration.values.get("google:fail_threashold", GoogleTask.DEFAULT_FAIL_THRESHOLD, 0);
+        GOOGLE_LINK_TEXT = Configuration.values.get("google:link_text_marker", Searcher.DEFAULT_LINK_TEXT);
+        GOOGLE_MIN_FILESIZE = Configuration.values.get("google:filesize_min", GoogleTask.DEFAULT_MIN_FILESIZE, 0);
+        GOOGLE_SEARCH_WORKERS = Configuration.values.get("google:search_workers", GoogleTask.DEFAULT_SEARCH_WORKERS, GoogleTask.MIN_SEARCH_WORKERS);
+
+        LARGER_SUBFOLDER = Configuration.values.get("google-large:subfolder", "copies");
+        LARGER_FILESIZE_RATIO = Configuration.values.get("google-large:filesize_ratio", LargerSubtask.DEFAULT_FILESIZE_RATIO, LargerSubtask.MIN_FILESIZE_RATIO);
+        LARGER_DIMENSION_RATIO = Configuration.values.get("google-large:dimension_ratio", LargerSubtask.DEFAULT_DIMENSION_RATIO, LargerSubtask.MIN_DIMENSION_RATIO);
+        LARGER_SOURCE_NAME = Configuration.values.get("google-large:source_name", LargerSubtask.DEFAULT_SOURCE_NAME);
+
+        MORE_SUBFOLDER = Configuration.values.get("google-more:subfolder", "more");
+        MORE_LOWER_MARGIN = Configuration.values.get("google-more:lower_margin", MoreSubtask.DEFAULT_LOWER_MARGIN, 0);
+        MORE_UPPER_MARGIN = Configuration.values.get("google-more:upper_margin", MoreSubtask.DEFAULT_UPPER_MARGIN, 0);
+        MORE_MIN_DIMENSION = Configuration.values.get("google-more:min_dimension", MoreSubtask.DEFAULT_MIN_DIMENSION, MoreSubtask.MIN_MIN_DIMENSION);
+        MORE_SEQUENCE_LIMIT = Configuration.values.get("google-more:sequence_limit", MoreSubtask.DEFAULT_SEQUENCE_LIMIT, 0);
+        MORE_SEQUENCE_WORKERS = Configuration.values.get("google-more:sequence_workers", MoreSubtask.DEFAULT_SEQUENCE_WORKERS, TaskScheduler.MIN_MAX_RUNNING);
+        MORE_SEQUENCES_PER_HOST = Configuration.values.get("google-more:sequences_per_host", MoreSubtask.DEFAULT_SEQUENCES_PER_HOST, TaskScheduler.MIN_MAX_PER_HOST);
+        MORE_STREAMING = Configuration.values.get("google-more:streaming", MoreSubtask.DEFAULT_STREAMING);
+    }
+    // </editor-fold>
+
+    private TaskSettings(){}
+
+    /**
+     * Applies the connection settings, which aren't kept in checkpoints.
+     */
+    public static void configureConnection(DownloadTask task){
+        task.setConnection(CONNECTION_TIMEOUT, READ_TIMEOUT, MIN_COOLDOWN, MAX_COOLDOWN);
+        task.setParallelism(PARALLELISM);
+        task.setDeduplicate(DEDUPLICATE);
+        task.setRememberUrls(REMEMBER_URLS, REVALIDATE);
+    }
+
+    public static void configureSequence(SequenceTask task){
+        task.setFailThreshold(SEQUENCE_FAIL_THRESHOLD);
+        task.setMinFilesize(SEQUENCE_MIN_FILESIZE);
+        task.setProbe(SEQUENCE_PROBE);
+        if(!task.isAutoBound()) task.setAutoBound(SEQUENCE_AUTO_BOUND); //created without an upper bound
+        task.setGapLimit(SEQUENCE_GAP_LIMIT);
+    }
+
+    public static void configureScraper(ScraperTask task){
+        task.setMinFilesize(SCRAPER_MIN_FILESIZE);
+        task.setPageWorkers(SCRAPER_PAGE_WORKERS);
+        task.setPageCache(SCRAPER_PAGE_CACHE);
+    }
+
+    public static void configureGoogle(GoogleTask task){
+        task.setFailThreshold(GOOGLE_FAIL_THRESHOLD);
+        task.setMinFilesize(GOOGLE_MIN_FILESIZE);
+        task.setSearchWorkers(GOOGLE_SEARCH_WORKERS);
+    }
+
+    public static LargerSubtask createLargerSubtask(){
+        final LargerSubtask subtask = new LargerSubtask(LARGER_SUBFOLDER);
+        subtask.setFilesizeRatio(LARGER_FILESIZE_RATIO);
+        subtask.setDimensionRatio(LARGER_DIMENSION_RATIO);
+        subtask.setSourceName(LARGER_SOURCE_NAME);
+        return subtask;
+    }
+
+    public static MoreSubtask createMoreSubtask(){
+        final MoreSubtask subtask = new MoreSubtask(MORE_SUBFOLDER);
+        subtask.setLowerMargin(MORE_LOWER_MARGIN);
+        subtask.setUpperMargin(MORE_UPPER_MARGIN);
+        subtask.setMinDimension(MORE_MIN_DIMENSION);
+        subtask.setSequenceLimit(MORE_SEQUENCE_LIMIT);
+        subtask.setSequenceWorkers(MORE_SEQUENCE_WORKERS, MORE_SEQUENCES_PER_HOST);
+        subtask.setParallelism(PARALLELISM);
+        subtask.setStreaming(MORE_STREAMING);
+        return subtask;
+    }
+
+}
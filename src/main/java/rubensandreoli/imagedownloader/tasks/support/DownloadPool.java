@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import rubensandreoli.commons.others.CachedFile;
+
+/**
+ * Runs {@code Downloader} jobs on a bounded number of worker threads.
+ * Submitting blocks while {@code parallelism * QUEUE_FACTOR} jobs are
+ * pending, so producers can't queue an unbounded amount of URLs.
+ * <br>
+ * With virtual threads enabled every job gets its own thread, and
+ * {@code parallelism} isn't a limit: up to {@code MAX_CONNECTIONS * QUEUE_FACTOR}
+ * jobs may be submitted, and the host and global permits of
+ * {@code HostPermits} cap how many of them are downloading.
+ *
+ * References:
+ * https://stackoverflow.com/questions/2001086/how-to-make-threadpoolexecutors-submit-method-block-if-it-is-saturated
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class DownloadPool {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int MIN_PARALLELISM = 1;
+
+    private static final int QUEUE_FACTOR = 2; //pending jobs per worker
+    private static final int KEEP_ALIVE = 30; //seconds
+    private static final String THREAD_NAME_MASK = "downloader-%d"; //number
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    // </editor-fold>
+
+    private final Downloader downloader;
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final int capacity;
+
+    public DownloadPool(Downloader downloader, int parallelism) {
+        if(parallelism < MIN_PARALLELISM) throw new IllegalArgumentException(parallelism+" < "+MIN_PARALLELISM);
+        this.downloader = downloader;
+        final ExecutorService virtual = VirtualThreads.newExecutor();
+        capacity = (virtual != null? Math.max(parallelism, HttpUtils.MAX_CONNECTIONS) : parallelism)*QUEUE_FACTOR;
+        slots = new Semaphore(capacity);
+        if(virtual != null){
+            executor = virtual;
+        }else{
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                final Thread thread = new Thread(r, String.format(THREAD_NAME_MASK, THREAD_COUNT.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true); //idle pools don't hold threads
+            executor = pool;
+        }
+    }
+
+    public Future<CachedFile> submit(String url, String folder, String filename, String extension, DownloadCallback callback){
+        return submit(() -> {
+            final CachedFile file = downloader.download(url, folder, filename, extension);
+            if(callback != null) callback.downloaded(url, file);
+            return file;
+        });
+    }
+    
+    /**
+     * Runs a job that makes its own {@code Downloader} calls, such as a
+     * probe followed by the download.
+     */
+    public Future<CachedFile> submit(Callable<CachedFile> job){
+        try {
+            slots.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(null);
+        }
+        try{
+            return executor.submit(() -> {
+                try{
+                    return job.call();
+                }finally{
+                    slots.release();
+                }
+            });
+        }catch(RejectedExecutionException ex){ //cancelled
+            slots.release();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Blocks until every job submitted so far has finished.
+     */
+    public void await(){
+        slots.acquireUninterruptibly(capacity);
+        slots.release(capacity);
+    }
+
+    /**
+     * Drops pending jobs and interrupts the running ones.
+     */
+    public void cancel(){
+        final List<Runnable> dropped = executor.shutdownNow();
+        for(Runnable job : dropped){
+            if(job instanceof Future) ((Future<?>) job).cancel(false); //so nobody waits on them
+        }
+        slots.release(dropped.size()); //dropped jobs never release their slots
+    }
+
+    /**
+     * Waits for the submitted jobs, then ends the workers; later jobs are
+     * rejected, as when cancelled.
+     */
+    public void close(){
+        await();
+        executor.shutdown();
+    }
+
+}
@@ -16,15 +16,37 @@
  */
 package rubensandreoli.imagedownloader.tasks.support;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-import org.apache.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.util.EntityUtils;
 import rubensandreoli.commons.others.CachedFile;
 import rubensandreoli.commons.utils.FileUtils;
-import rubensandreoli.commons.utils.IntegerUtils;
 
 public class Downloader {
     
@@ -33,75 +55,340 @@ public class Downloader {
     public static final int FIXED = 1;
     public static final int DELETED = 2;
     public static final int FAILED = 3;
+    public static final int SKIPPED = 4;
     
     public static final int DEFAULT_CONNECTION_TIMEOUT = 2000; //ms
     public static final int DEFAULT_READ_TIMEOUT = 4000; //ms
     public static final int DEFAULT_MIN_COOLDOWN = 600; //ms
     public static final int DEFAULT_MAX_COOLDOWN = 1200; //ms
+    public static final boolean DEFAULT_DEDUPLICATE = true;
+    public static final boolean DEFAULT_REMEMBER_URLS = true;
+    public static final boolean DEFAULT_REVALIDATE = false;
     
     private static final String TUMBLR_IMAGE_PREFIX = "tumblr_";
+    private static final int TOO_MANY_REQUESTS = 429; //status code
+    private static final Object FILE_LOCK = new Object();
+    private static final int PEEK_SIZE = 8192; //bytes; first block, inspected before any file is created
+    private static final String PART_PREFIX = ".imagedownloader-"; //hidden, like the indexes
+    private static final String PART_SUFFIX = ".part";
+    private static final Pattern PART_PATTERN = Pattern.compile(Pattern.quote(PART_PREFIX)+"\\p{XDigit}{8}(-\\p{XDigit}{4}){3}-\\p{XDigit}{12}"+Pattern.quote(PART_SUFFIX)); //random UUID
+    private static final long PART_STALE_AGE = 10*60*1000; //ms; younger parts may belong to another instance
+    private static final Map<Path, Boolean> CLEANED_FOLDERS = new ConcurrentHashMap<>(); //stale parts deleted
+    private static final String MARKUP_TYPE = "text/html";
+    private static final byte MARKUP_SIGNATURE = 60; //[<]!DOCTYPE...>
+    private static final int PROBE_SIZE = 16; //bytes
+    private static final String PROBE_RANGE = "bytes=0-"+(PROBE_SIZE-1);
     
     private static final String DOWNLOAD_LOG_MASK = "Downloaded [%s]"; //url
-    private static final String DELETING_FILE_LOG_MASK = "Deleting unwanted [%s]"; //url
+    private static final String DISCARDING_LOG_MASK = "Discarding unwanted [%s]"; //url
     private static final String DOWNLOAD_FAILED_LOG_MASK = "Failed downloading [%s]"; //url
+    private static final String DUPLICATE_LOG_MASK = "Discarding duplicate [%s]"; //url
+    private static final String KNOWN_LOG_MASK = "Skipping already downloaded [%s]"; //url
+    private static final String NOT_MODIFIED_LOG_MASK = "Skipping unmodified [%s]"; //url
+    private static final String SKIPPING_LOG_MASK = "Skipping unwanted [%s]"; //url
+    private static final String PROBE_FAILED_LOG_MASK = "Failed probing [%s]"; //url
     private static final String SUCCESS_TUMBLR_LOG_MASK = "Succeeded resolving Tumblr URL [%s]"; //url
     private static final String FAILED_TUMBLR_LOG_MASK = "Failed resolving Tumblr URL [%s]"; //url
     private static final String FAILED_INVALID_LOG_MASK = "Failed resolving invalid URL [%s]"; //url
     // </editor-fold>
     
     private boolean sleep = true;
+    private boolean deduplicate = DEFAULT_DEDUPLICATE;
+    private boolean rememberUrls = DEFAULT_REMEMBER_URLS;
+    private boolean revalidate = DEFAULT_REVALIDATE; //conditional GET for known URLs, instead of skipping them
     private int minFilesize = 0;
     private int connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
     private int readTimeout = DEFAULT_READ_TIMEOUT;
-    private int minCooldown = DEFAULT_MIN_COOLDOWN;
-    private int maxCooldown = DEFAULT_MAX_COOLDOWN;
+    private final HostLimiter limiter = new HostLimiter(DEFAULT_MIN_COOLDOWN, DEFAULT_MAX_COOLDOWN);
     private DownloadListener listener;
+    
+    @FunctionalInterface
+    private interface Request<T>{
+        T execute() throws IOException;
+    }
+    
+    private static class Part{ //downloaded to a temporary file
+        
+        private static final Part NOT_MODIFIED = new Part(null, 0, 0, null);
+        
+        private final Path path;
+        private final long size;
+        private final long digest;
+        private final CloseableHttpResponse response; //closed; headers only
+
+        private Part(Path path, long size, long digest, CloseableHttpResponse response) {
+            this.path = path;
+            this.size = size;
+            this.digest = digest;
+            this.response = response;
+        }
+        
+    }
 
     public CachedFile download(String url, String folder, String filename, String extension){
+        Part part = null;
         try {
-            CachedFile cachedFile = new CachedFile(FileUtils.createValidFile(folder, filename, extension));
-            FileUtils.downloadToFile(url, cachedFile, connectionTimeout, readTimeout);
-            if(cachedFile.length() > minFilesize && !cachedFile.matchSignature((byte)60)){ //[<]!DOCTYPE...>
-                fireStateChanged(DONE, DOWNLOAD_LOG_MASK, url);
-            } else {
-                if(cachedFile.delete()){
-                    fireStateChanged(DELETED, DELETING_FILE_LOG_MASK, url);
+            final UrlStore.Record known = lookup(url, folder);
+            if(known != null && !revalidate){
+                fireStateChanged(SKIPPED, KNOWN_LOG_MASK, url);
+                return null; //already downloaded
+            }
+            part = transfer(url, folder, known);
+            if(part == Part.NOT_MODIFIED){
+                fireStateChanged(SKIPPED, NOT_MODIFIED_LOG_MASK, url);
+                return null; //already downloaded
+            }
+            if(part != null){
+                if(!register(folder, part.digest)){
+                    deleteQuietly(part.path); //not remembered: placeholders served for missing files aren't 'known'
+                    fireStateChanged(DELETED, DUPLICATE_LOG_MASK, url);
+                    return null; //already saved
                 }
-                if(filename.startsWith(TUMBLR_IMAGE_PREFIX)){
-                    cachedFile = resolveTumblr(url, folder, filename, extension);
-                }else if(url.contains("?")){
-                    cachedFile = resolveInvalid(url, folder);
-                }else{
-                    return null; //failed resolving
+                final CachedFile cachedFile;
+                try{
+                    cachedFile = moveToFile(part.path, folder, filename, extension);
+                }catch(IOException ex){
+                    unregister(folder, part.digest);
+                    throw ex;
                 }
+                remember(folder, url, part.size, part.response);
+                fireStateChanged(DONE, DOWNLOAD_LOG_MASK, url);
+                return cachedFile; //ok
+            }
+            fireStateChanged(DELETED, DISCARDING_LOG_MASK, url);
+            if(filename.startsWith(TUMBLR_IMAGE_PREFIX)){
+                return resolveTumblr(url, folder, filename, extension);
+            }else if(url.contains("?")){
+                return resolveInvalid(url, folder);
             }
-            if(sleep) sleepRandom();
-            return cachedFile; //ok
+            return null; //failed resolving
         } catch (IOException ex) {
+            if(part != null) deleteQuietly(part.path);
             fireStateChanged(FAILED, DOWNLOAD_FAILED_LOG_MASK, url);
             return null; //failed download
         }
     }
     
+    /**
+     * Loads, or rebuilds, the digest index of {@code folder} ahead of the
+     * first download to it.
+     * 
+     * @see HashIndex#load(IntConsumer)
+     */
+    public void index(String folder, IntConsumer progress) throws IOException{
+        if(deduplicate) HashIndex.of(Paths.get(folder)).load(progress);
+    }
+    
+    /**
+     * Deletes a file downloaded from {@code url}, that turned out not to be
+     * wanted, and forgets its digest and URL, so it isn't taken for a
+     * duplicate, or skipped as already downloaded, next time.
+     * 
+     * @return {@code true} if the file was deleted
+     */
+    public boolean discard(CachedFile file, String url, String folder){
+        long digest = 0; //'0': not indexed
+        if(deduplicate){
+            try {
+                digest = HashIndex.digest(file.toPath());
+            } catch (IOException ex) {} //indexed: taken for a duplicate next time
+        }
+        if(!file.delete()) return false;
+        try {
+            if(digest != 0) unregister(folder, digest);
+            if(rememberUrls) UrlStore.of(Paths.get(folder)).remove(url);
+        } catch (IOException ex) {} //remembered: skipped next time
+        return true;
+    }
+    
     public void fireStateChanged(int status, String msg, Object...args){
         if(listener != null) listener.donwloadStateChanged(status, String.format(msg, args));
     }
     
-    private CachedFile resolveTumblr(String url, String folder, String filename, String extension) throws IOException{
-        try(CloseableHttpClient client = HttpUtils.getClient()){
+    /**
+     * @return {@code true} if {@code url} was already downloaded to {@code folder},
+     * and saved to its own file; duplicates aren't remembered
+     */
+    public boolean isKnown(String url, String folder){
+        try {
+            return lookup(url, folder) != null;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+    
+    private Part transfer(String url, String folder, UrlStore.Record known) throws IOException{
+        return limited(url, () -> fetch(url, Paths.get(folder), known));
+    }
+    
+    private <T> T limited(String url, Request<T> request) throws IOException{
+        waitTurn(url);
+        final long start = System.currentTimeMillis();
+        final T result;
+        try(var permit = HostPermits.acquire(url)){
+            result = request.execute();
+        }catch(IOException ex){
+            if(sleep && isThrottling(ex)) limiter.throttled(url);
+            throw ex;
+        }
+        if(sleep) limiter.succeeded(url, System.currentTimeMillis()-start);
+        return result;
+    }
+    
+    /**
+     * Streams the response to a temporary file in {@code folder}. Markup and
+     * undersized responses are rejected from the headers or the first block,
+     * before anything is written to disk.
+     * 
+     * @return the temporary file and its digest, {@code NOT_MODIFIED} if the
+     * {@code known} record is still valid, or {@code null} if the response
+     * was rejected
+     */
+    private Part fetch(String url, Path folder, UrlStore.Record known) throws IOException{
+        final HttpGet request = HttpUtils.createGet(url);
+        request.addHeader("Accept", HttpUtils.ACCEPT_IMAGE);
+        if(known != null){
+            if(known.etag != null) request.addHeader("If-None-Match", known.etag);
+            if(known.lastModified != null) request.addHeader("If-Modified-Since", known.lastModified);
+        }
+        request.setConfig(HttpUtils.getConfig(connectionTimeout, readTimeout));
+        try(CloseableHttpResponse response = HttpUtils.getClient().execute(request)){
+            if(response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) return Part.NOT_MODIFIED;
+            final HttpEntity entity = HttpUtils.getEntity(response);
             
-            //----------REQUEST----------//
-            final HttpGet request = new HttpGet(url);
-            request.addHeader("Accept", HttpUtils.ACCEPT_IMAGE);
-            request.addHeader("referer", url);
-            final HttpResponse response = client.execute(request);
+            //----------HEADERS----------//
+            final long length = entity.getContentLength(); //negative: unknown
+            if(length >= 0 && length <= minFilesize){
+                EntityUtils.consume(entity); //small; keeps the connection reusable
+                return null;
+            }
+            if(isMarkup(entity.getContentType())) return null; //closing aborts the body
+            
+            //----------FIRST BLOCK----------//
+            final InputStream in = entity.getContent(); //not closed: that drains the body, closing the response aborts it
+            final byte[] head = new byte[PEEK_SIZE];
+            final int read = in.readNBytes(head, 0, PEEK_SIZE);
+            if(read > 0 && head[0] == MARKUP_SIGNATURE) return null;
+            if(read < PEEK_SIZE && read <= minFilesize) return null; //whole body read, too small
+
+            //----------STREAM TO DISK----------//
+            Files.createDirectories(folder);
+            CLEANED_FOLDERS.computeIfAbsent(folder, Downloader::deleteParts); //blocks other downloads to it meanwhile
+            final Path part = folder.resolve(PART_PREFIX+UUID.randomUUID()+PART_SUFFIX);
+            try{
+                long size = read;
+                final MessageDigest md = HashIndex.createDigest();
+                final OutputStream file = Files.newOutputStream(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE); //default permissions, unlike temporary files
+                try(OutputStream out = new DigestOutputStream(new BufferedOutputStream(file, PEEK_SIZE), md)){
+                    out.write(head, 0, read);
+                    size += in.transferTo(out); //end of stream releases the connection
+                }
+                if(size <= minFilesize){
+                    deleteQuietly(part);
+                    return null;
+                }
+                return new Part(part, size, HashIndex.toLong(md), response);
+            }catch(IOException ex){
+                deleteQuietly(part);
+                throw ex;
+            }
+        }
+    }
+    
+    /**
+     * Requests only the first bytes of {@code url} to learn if it exists, its
+     * size and content type, without downloading the body. Servers that
+     * ignore the range have their response aborted after those bytes.
+     * 
+     * @return {@code true} if the full download would pass the size and
+     * signature checks
+     */
+    public boolean probe(String url){
+        try {
+            if(limited(url, () -> inspect(url))) return true;
+            fireStateChanged(DELETED, SKIPPING_LOG_MASK, url);
+        } catch (IOException ex) {
+            fireStateChanged(FAILED, PROBE_FAILED_LOG_MASK, url);
+        }
+        return false;
+    }
+    
+    private boolean inspect(String url) throws IOException{
+        final HttpGet request = HttpUtils.createGet(url);
+        request.addHeader("Accept", HttpUtils.ACCEPT_IMAGE);
+        request.addHeader("Range", PROBE_RANGE);
+        request.setConfig(HttpUtils.getConfig(connectionTimeout, readTimeout));
+        try(CloseableHttpResponse response = HttpUtils.getClient().execute(request)){
+            final HttpEntity entity = HttpUtils.getEntity(response);
+            if(isMarkup(entity.getContentType())) return false;
+            final long size = getTotalSize(response, entity); //negative: unknown
+            if(size >= 0 && size <= minFilesize) return false;
+            
+            final InputStream in = entity.getContent(); //not closed: that drains the body
+            final byte[] head = in.readNBytes(PROBE_SIZE);
+            final long length = entity.getContentLength();
+            if(length >= 0 && length <= PROBE_SIZE) EntityUtils.consume(entity); //ranged reply; keeps the connection reusable
+            if(head.length == 0 || head[0] == MARKUP_SIGNATURE) return false;
+            return size >= 0 || head.length == PROBE_SIZE || head.length > minFilesize;
+        }
+    }
+    
+    private static long getTotalSize(CloseableHttpResponse response, HttpEntity entity){
+        if(response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT){
+            return entity.getContentLength(); //range ignored: whole body
+        }
+        final Header range = response.getFirstHeader("Content-Range"); //bytes 0-15/total
+        if(range == null) return -1;
+        final String value = range.getValue();
+        try{
+            return Long.parseLong(value.substring(value.lastIndexOf('/')+1).trim());
+        }catch(NumberFormatException ex){ //'*': unknown
+            return -1;
+        }
+    }
+    
+    private static boolean isMarkup(Header contentType){
+        return contentType != null && contentType.getValue().trim().toLowerCase().startsWith(MARKUP_TYPE);
+    }
+    
+    private void waitTurn(String url) throws InterruptedIOException{
+        if(!sleep) return;
+        try {
+            limiter.acquire(url);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for host cooldown");
+        }
+    }
+    
+    private static boolean isThrottling(IOException ex){
+        if(ex instanceof HttpResponseException){
+            final int status = ((HttpResponseException) ex).getStatusCode();
+            return status == TOO_MANY_REQUESTS || status == HttpStatus.SC_SERVICE_UNAVAILABLE;
+        }
+        return ex instanceof SocketTimeoutException || ex instanceof ConnectTimeoutException;
+    }
+    
+    private CachedFile resolveTumblr(String url, String folder, String filename, String extension) throws IOException{
+        //----------REQUEST----------//
+        final HttpGet request = HttpUtils.createGet(url);
+        request.addHeader("Accept", HttpUtils.ACCEPT_IMAGE);
+        request.addHeader("referer", url);
+        request.setConfig(HttpUtils.getConfig(connectionTimeout, readTimeout));
+        waitTurn(url);
+        try(var permit = HostPermits.acquire(url); CloseableHttpResponse response = HttpUtils.getClient().execute(request)){
             
             //----------SAVE BYTES----------//
-            final byte[] bytes = EntityUtils.toByteArray(response.getEntity());
+            final byte[] bytes = EntityUtils.toByteArray(HttpUtils.getEntity(response));
             if(bytes.length > minFilesize){
-                final CachedFile cachedFile = new CachedFile(FileUtils.createValidFile(folder, filename, extension));
+                if(!register(folder, HashIndex.digest(bytes))){
+                    fireStateChanged(DELETED, DUPLICATE_LOG_MASK, url);
+                    return null; //already saved
+                }
+                final CachedFile cachedFile = new CachedFile(reserveFile(folder, filename, extension));
                 Files.write(cachedFile.toPath(), bytes);
                 cachedFile.setSize(bytes.length);
+                remember(folder, url, bytes.length, response);
                 fireStateChanged(FIXED, SUCCESS_TUMBLR_LOG_MASK, url);
                 return cachedFile;
             }
@@ -119,12 +406,74 @@ public class Downloader {
         return cachedFile;
     }
     
-    private void sleepRandom(){
+    private static CachedFile moveToFile(Path part, String folder, String filename, String extension) throws IOException{
+        synchronized(FILE_LOCK){ //concurrent downloads could pick the same valid name
+            final Path target = FileUtils.createValidFile(folder, filename, extension).toPath();
+            try{
+                Files.move(part, target, StandardCopyOption.ATOMIC_MOVE); //same folder: a rename
+            }catch(AtomicMoveNotSupportedException ex){
+                Files.move(part, target);
+            }
+            return new CachedFile(target.toFile());
+        }
+    }
+    
+    private boolean register(String folder, long digest) throws IOException{
+        return !deduplicate || HashIndex.of(Paths.get(folder)).add(digest);
+    }
+    
+    private void unregister(String folder, long digest) throws IOException{
+        if(deduplicate) HashIndex.of(Paths.get(folder)).remove(digest);
+    }
+    
+    private UrlStore.Record lookup(String url, String folder) throws IOException{
+        return rememberUrls? UrlStore.of(Paths.get(folder)).get(url) : null;
+    }
+    
+    private void remember(String folder, String url, long size, CloseableHttpResponse response){
+        if(!rememberUrls) return;
+        final Header etag = response.getFirstHeader("ETag");
+        final Header lastModified = response.getFirstHeader("Last-Modified");
         try {
-            Thread.sleep(IntegerUtils.getRandomBetween(minCooldown, maxCooldown));
-        } catch (InterruptedException ex) {}
+            UrlStore.of(Paths.get(folder)).add(new UrlStore.Record(url, size, 
+                    etag == null? null : etag.getValue(), 
+                    lastModified == null? null : lastModified.getValue()
+            ));
+        } catch (IOException ex) {} //not remembered: downloaded again next time
     }
-
+    
+    /**
+     * Deletes temporary files left in {@code folder} by an interrupted run.
+     * Only names this class creates are matched, and recently modified
+     * ones are kept, since another instance may still be writing them.
+     */
+    private static Boolean deleteParts(Path folder){
+        final long staleTime = System.currentTimeMillis()-PART_STALE_AGE;
+        try(DirectoryStream<Path> parts = Files.newDirectoryStream(folder, PART_PREFIX+"*"+PART_SUFFIX)){
+            for (Path part : parts) {
+                if(!PART_PATTERN.matcher(part.getFileName().toString()).matches()) continue;
+                try {
+                    if(Files.getLastModifiedTime(part).toMillis() < staleTime) Files.deleteIfExists(part);
+                } catch (IOException ex) {} //left for the next run
+            }
+        } catch (IOException ex) {} //left for the next run
+        return true;
+    }
+    
+    private static void deleteQuietly(Path file){
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {}
+    }
+    
+    private static File reserveFile(String folder, String filename, String extension) throws IOException{
+        synchronized(FILE_LOCK){ //concurrent downloads could pick the same valid name
+            final File file = FileUtils.createValidFile(folder, filename, extension);
+            file.createNewFile();
+            return file;
+        }
+    }
+    
     // <editor-fold defaultstate="collapsed" desc=" SETTERS "> 
     public void setListener(DownloadListener listener) {
         this.listener = listener;
@@ -146,14 +495,34 @@ public class Downloader {
     }
     
     public void setCooldown(int minCooldown, int maxCooldown) {
-        if(minCooldown > maxCooldown) throw new IllegalArgumentException("min "+minCooldown+" > max "+maxCooldown);
-        this.minCooldown = minCooldown;
-        this.maxCooldown = maxCooldown;
+        limiter.setIntervals(minCooldown, maxCooldown); //per host request interval floor and ceiling
     }
 
     public void setSleep(boolean sleep) {
         this.sleep = sleep;
     }
+    
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+    
+    public void setRememberUrls(boolean rememberUrls, boolean revalidate) {
+        this.rememberUrls = rememberUrls;
+        this.revalidate = revalidate;
+    }
+    
+    /**
+     * Uses the connection, cooldown, duplicates index and URL store settings
+     * of {@code source}; the minimum file size, sleep and listener are kept.
+     */
+    public void setConnection(Downloader source) {
+        connectionTimeout = source.connectionTimeout;
+        readTimeout = source.readTimeout;
+        limiter.setIntervals(source.limiter.getMinInterval(), source.limiter.getMaxInterval());
+        deduplicate = source.deduplicate;
+        rememberUrls = source.rememberUrls;
+        revalidate = source.revalidate;
+    }
     // </editor-fold>
 
 }
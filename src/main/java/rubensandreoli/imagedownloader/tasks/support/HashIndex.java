@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Persistent set of 64-bit content digests of the files in a folder, shared
+ * by every task saving to it. The digests are appended to a hidden file in
+ * the folder as they are added; if that file is missing, the folder is
+ * scanned once to rebuild it. Delete the file to rebuild the index after
+ * removing images by hand.
+ * <br>
+ * Tasks should {@link #load(IntConsumer)} the index when they start: the
+ * scan of a large folder takes a while, and it doesn't hold the index
+ * monitor, but downloads to the folder can't be checked until it ends.
+ *
+ * References:
+ * https://en.wikipedia.org/wiki/Open_addressing
+ * https://en.wikipedia.org/wiki/Linear_probing#Deletion
+ * https://en.wikipedia.org/wiki/Birthday_problem#Probability_table
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class HashIndex {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final String INDEX_FILENAME = ".imagedownloader.hashes";
+    private static final String ALGORITHM = "SHA-1"; //first 8 bytes used
+    private static final int BUFFER_SIZE = 8192; //bytes
+    private static final String PART_SUFFIX = ".part";
+    private static final int SCAN_REPORT_INTERVAL = 1000; //files
+    private static final Map<Path, HashIndex> INDEXES = new ConcurrentHashMap<>();
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" LONG SET ">
+    private static class LongSet{ //linear probing; '0' marks empty slots
+
+        private static final int INITIAL_CAPACITY = 1024; //power of 2
+        private static final float LOAD_FACTOR = 0.5f;
+
+        private long[] table = new long[INITIAL_CAPACITY];
+        private int size;
+
+        private boolean add(long value){
+            if(size+1 > table.length*LOAD_FACTOR) resize();
+            final int mask = table.length-1;
+            int i = slot(value, mask);
+            while(table[i] != 0){
+                if(table[i] == value) return false;
+                i = (i+1) & mask;
+            }
+            table[i] = value;
+            size++;
+            return true;
+        }
+
+        private boolean remove(long value){
+            final int mask = table.length-1;
+            int i = slot(value, mask);
+            while(table[i] != value){
+                if(table[i] == 0) return false;
+                i = (i+1) & mask;
+            }
+            //backward shift: move later entries of the cluster into the gap
+            int gap = i;
+            for(int j = (i+1) & mask; table[j] != 0; j = (j+1) & mask){
+                final int home = slot(table[j], mask);
+                if(((j - home) & mask) >= ((j - gap) & mask)){
+                    table[gap] = table[j];
+                    gap = j;
+                }
+            }
+            table[gap] = 0;
+            size--;
+            return true;
+        }
+
+        private void resize(){
+            final long[] old = table;
+            table = new long[old.length*2];
+            size = 0;
+            for(long value : old){
+                if(value != 0) add(value);
+            }
+        }
+
+        private static int slot(long value, int mask){
+            return (int)(value ^ (value >>> 32)) & mask; //digests are already uniform
+        }
+
+        private long[] toArray(){
+            final long[] values = new long[size];
+            int n = 0;
+            for(long value : table){
+                if(value != 0) values[n++] = value;
+            }
+            return values;
+        }
+
+    }
+    // </editor-fold>
+
+    private final Path folder;
+    private final Path file;
+    private final Object loading = new Object(); //one scan at a time, outside the monitor
+    private LongSet digests = new LongSet();
+    private volatile boolean loaded;
+
+    private HashIndex(Path folder) {
+        this.folder = folder;
+        file = folder.resolve(INDEX_FILENAME);
+    }
+
+    public static HashIndex of(Path folder){
+        return INDEXES.computeIfAbsent(folder.toAbsolutePath().normalize(), HashIndex::new);
+    }
+
+    /**
+     * @return {@code false} if a file with the same digest was already saved
+     */
+    public boolean add(long digest) throws IOException{
+        load(null);
+        synchronized(this){
+            if(!digests.add(digest)) return false;
+            Files.write(file, ByteBuffer.allocate(Long.BYTES).putLong(digest).array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return true;
+        }
+    }
+
+    /**
+     * Forgets a digest whose file couldn't be saved after all.
+     */
+    public synchronized void remove(long digest) throws IOException{
+        if(!loaded || !digests.remove(digest)) return;
+        save();
+    }
+
+    /**
+     * Reads the index, or rebuilds it if missing, unless already done.
+     * Other threads loading it meanwhile wait for the same scan.
+     * 
+     * @param progress receives the number of files read so far, every
+     * {@value #SCAN_REPORT_INTERVAL} files of a rebuild; may be {@code null}
+     */
+    public void load(IntConsumer progress) throws IOException{
+        if(loaded) return;
+        synchronized(loading){
+            if(loaded) return;
+            final LongSet read = new LongSet();
+            final boolean rebuilt = !Files.isRegularFile(file);
+            if(!rebuilt){
+                try(var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))){
+                    while(true) read.add(in.readLong());
+                }catch(EOFException ex){} //end of index; a torn last entry is dropped
+            }else{
+                scan(read, progress);
+            }
+            synchronized(this){
+                digests = read;
+                if(rebuilt) save();
+                loaded = true;
+            }
+        }
+    }
+
+    private void scan(LongSet read, IntConsumer progress) throws IOException{
+        if(!Files.isDirectory(folder)) return;
+        int count = 0;
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(folder)){
+            for(Path image : files){
+                final String name = image.getFileName().toString();
+                if(name.startsWith(".") || name.endsWith(PART_SUFFIX) || !Files.isRegularFile(image)) continue;
+                try{
+                    read.add(digest(image));
+                }catch(IOException ex){} //unreadable file: not indexed
+                if(++count % SCAN_REPORT_INTERVAL == 0 && progress != null) progress.accept(count);
+            }
+        }
+    }
+
+    private void save() throws IOException{
+        final long[] values = digests.toArray();
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length*Long.BYTES);
+        buffer.asLongBuffer().put(values);
+        Files.createDirectories(folder);
+        Files.write(file, buffer.array());
+    }
+
+    // <editor-fold defaultstate="collapsed" desc=" DIGEST ">
+    public static MessageDigest createDigest(){
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) { //every platform must support it
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static long toLong(MessageDigest md){
+        final long digest = ByteBuffer.wrap(md.digest()).getLong();
+        return digest == 0? 1 : digest; //'0' is the empty slot marker
+    }
+
+    public static long digest(byte[] bytes){
+        final MessageDigest md = createDigest();
+        md.update(bytes);
+        return toLong(md);
+    }
+
+    public static long digest(Path file) throws IOException{
+        try(InputStream in = Files.newInputStream(file)){
+            final MessageDigest md = createDigest();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while((read = in.read(buffer)) != -1) md.update(buffer, 0, read);
+            return toLong(md);
+        }
+    }
+    // </editor-fold>
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-host token bucket holding a single token, refilled every
+ * {@code interval} ms. Requests to different hosts never wait on
+ * each other. The interval of each host adapts between the
+ * cooldown floor and ceiling: it shrinks after fast successful
+ * responses and doubles when the host throttles or times out.
+ * <br>
+ * Buckets are process-wide, like {@link HostPermits}, so concurrent
+ * tasks requesting from the same host share its rate and its backoff;
+ * each limiter only sets the bounds its own requests are held to.
+ *
+ * References:
+ * https://en.wikipedia.org/wiki/Token_bucket
+ * https://en.wikipedia.org/wiki/Additive_increase/multiplicative_decrease
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class HostLimiter {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final int FAST_RESPONSE = 1000; //ms
+    private static final double SPEED_UP_FACTOR = 0.9;
+    private static final double BACK_OFF_FACTOR = 2.0;
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" BUCKET ">
+    private static class Bucket{
+
+        private long next; //nanos; when the token is available again
+        private long interval; //ms
+
+        private Bucket(long interval) {
+            this.interval = interval;
+        }
+
+    }
+    // </editor-fold>
+
+    private static final Map<String, Bucket> BUCKETS = new ConcurrentHashMap<>();
+    
+    private volatile int minInterval;
+    private volatile int maxInterval;
+
+    public HostLimiter(int minInterval, int maxInterval) {
+        setIntervals(minInterval, maxInterval);
+    }
+
+    public void acquire(String url) throws InterruptedException{
+        final Bucket bucket = getBucket(url);
+        final long wait;
+        synchronized(bucket){
+            final long now = System.nanoTime();
+            final long start = Math.max(now, bucket.next);
+            final long interval = Math.min(maxInterval, Math.max(minInterval, bucket.interval));
+            bucket.next = start + TimeUnit.MILLISECONDS.toNanos(interval);
+            wait = start - now;
+        }
+        if(wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    public void succeeded(String url, long elapsed){
+        if(elapsed > FAST_RESPONSE) return;
+        final Bucket bucket = getBucket(url);
+        synchronized(bucket){
+            bucket.interval = Math.max(minInterval, (long)(bucket.interval*SPEED_UP_FACTOR));
+        }
+    }
+
+    public void throttled(String url){
+        final Bucket bucket = getBucket(url);
+        synchronized(bucket){
+            bucket.interval = Math.min(maxInterval, Math.max(1, (long)(bucket.interval*BACK_OFF_FACTOR)));
+        }
+    }
+
+    private Bucket getBucket(String url){
+        return BUCKETS.computeIfAbsent(HttpUtils.getHost(url), h -> new Bucket((minInterval+maxInterval)/2));
+    }
+
+    // <editor-fold defaultstate="collapsed" desc=" SETTERS ">
+    public final void setIntervals(int minInterval, int maxInterval){
+        if(minInterval < 0) throw new IllegalArgumentException(minInterval+" < 0");
+        if(minInterval > maxInterval) throw new IllegalArgumentException("min "+minInterval+" > max "+maxInterval);
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" GETTERS ">
+    public int getMinInterval() {
+        return minInterval;
+    }
+
+    public int getMaxInterval() {
+        return maxInterval;
+    }
+    // </editor-fold>
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the requests in flight, per host and overall, at the size of the
+ * shared connection pool. Requests beyond the cap wait here, for as long as
+ * needed, instead of timing out while leasing a connection; which matters
+ * when requests aren't limited by the number of threads making them.
+ * <br>
+ * The host permit is taken first, so a busy host doesn't hold global
+ * permits that requests to other hosts could use.
+ *
+ * References:
+ * https://hc.apache.org/httpcomponents-client-4.5.x/current/tutorial/html/connmgmt.html#d5e393
+ * https://en.wikipedia.org/wiki/Semaphore_(programming)
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class HostPermits {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    private static final Semaphore GLOBAL = new Semaphore(HttpUtils.MAX_CONNECTIONS, true);
+    private static final Map<String, Semaphore> HOSTS = new ConcurrentHashMap<>();
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" PERMIT ">
+    public static class Permit implements AutoCloseable{
+
+        private final Semaphore host;
+        private boolean released;
+
+        private Permit(Semaphore host) {
+            this.host = host;
+        }
+
+        @Override
+        public void close() {
+            if(released) return;
+            released = true;
+            GLOBAL.release();
+            host.release();
+        }
+
+    }
+    // </editor-fold>
+
+    private HostPermits(){}
+
+    /**
+     * Blocks until a request to the host of {@code url} may be made.
+     * The permit must be closed once the response is consumed.
+     */
+    public static Permit acquire(String url) throws InterruptedIOException{
+        final Semaphore host = HOSTS.computeIfAbsent(HttpUtils.getHost(url), h -> new Semaphore(HttpUtils.MAX_CONNECTIONS_PER_ROUTE, true));
+        try {
+            host.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        try {
+            GLOBAL.acquire();
+        } catch (InterruptedException ex) {
+            host.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        return new Permit(host);
+    }
+
+}
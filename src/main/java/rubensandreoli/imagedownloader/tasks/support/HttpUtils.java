@@ -16,31 +16,211 @@
  */
 package rubensandreoli.imagedownloader.tasks.support;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustAllStrategy;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContextBuilder;
 import org.jsoup.Jsoup;
+import org.jsoup.UnsupportedMimeTypeException;
 import org.jsoup.nodes.Document;
 
+/**
+ * References:
+ * https://hc.apache.org/httpcomponents-client-4.5.x/tutorial/html/connmgmt.html
+ * https://www.baeldung.com/httpclient-connection-management
+ * 
+ * @author Rubens A. Andreoli Jr.
+ */
 public class HttpUtils {
     
     // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS "> 
     public static final String USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/83.0.4103.61 Safari/537.36";
     public static final String ACCEPT_IMAGE = "image/webp,image/apng,*/*";
     public static final String ACCEPT_TEXT = "text/html; charset=UTF-8";
+    
+    public static final int MAX_CONNECTIONS = 64;
+    public static final int MAX_CONNECTIONS_PER_ROUTE = 8;
+    private static final int DEFAULT_KEEP_ALIVE = 30000; //ms; when server doesn't send one
+    private static final int IDLE_EVICTION = 30; //seconds
+    private static final int VALIDATE_AFTER = 2000; //ms; inactive connections are checked before reuse
+    public static final int DOCUMENT_TIMEOUT = 30000; //ms; same as Jsoup.connect()
+    public static final int MAX_BODY_SIZE = 2*1024*1024; //bytes; same as Jsoup.connect(), larger documents are truncated
+    // </editor-fold>
+    
+    // <editor-fold defaultstate="collapsed" desc=" CLIENT HOLDER "> 
+    private static class ClientHolder{ //lazy, thread-safe initialization
+        
+        private static final CloseableHttpClient CLIENT = createClient();
+        
+        private static CloseableHttpClient createClient(){
+            final var manager = new PoolingHttpClientConnectionManager(createRegistry());
+            manager.setMaxTotal(MAX_CONNECTIONS);
+            manager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+            manager.setValidateAfterInactivity(VALIDATE_AFTER);
+            
+            final ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+                final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return duration > 0? duration : DEFAULT_KEEP_ALIVE;
+            };
+            
+            return HttpClientBuilder.create()
+                    .setUserAgent(USER_AGENT)
+                    .setConnectionManager(manager)
+                    .setKeepAliveStrategy(keepAlive)
+                    .evictExpiredConnections()
+                    .evictIdleConnections(IDLE_EVICTION, TimeUnit.SECONDS)
+                    .build();
+        }
+        
+        private static Registry<ConnectionSocketFactory> createRegistry(){
+            final var registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory());
+            try {
+                //same policy the program sets for HttpsURLConnection: trust all certificates
+                final SSLContext context = new SSLContextBuilder().loadTrustMaterial(TrustAllStrategy.INSTANCE).build();
+                registry.register("https", new SSLConnectionSocketFactory(context));
+            } catch (GeneralSecurityException ex) {
+                registry.register("https", SSLConnectionSocketFactory.getSocketFactory());
+            }
+            return registry.build();
+        }
+        
+    }
+    // </editor-fold>
+    
+    // <editor-fold defaultstate="collapsed" desc=" DOCUMENT RESPONSE "> 
+    public static class DocumentResponse{
+        
+        public final Document document; //'null' if not modified
+        public final String etag;
+        public final String lastModified;
+
+        private DocumentResponse(Document document, String etag, String lastModified) {
+            this.document = document;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+        
+        public boolean isNotModified(){
+            return document == null;
+        }
+        
+    }
     // </editor-fold>
     
     private HttpUtils(){}
     
     public static Document getDocument(String url) throws IOException {
-            return Jsoup.connect(url)
-                    .header("Accept", ACCEPT_TEXT)
-                    .userAgent(USER_AGENT)
-                    .get();
+        return getDocument(url, null, null).document;
+    }
+    
+    /**
+     * Conditional GET: with a validator from a previous response, the server
+     * may answer {@code 304 Not Modified}, and no document is parsed.
+     * As with {@code Jsoup.connect()}, responses that aren't HTML are rejected
+     * and the body read is limited to {@link #MAX_BODY_SIZE}.
+     */
+    public static DocumentResponse getDocument(String url, String etag, String lastModified) throws IOException {
+        final HttpGet request = createGet(url);
+        request.addHeader("Accept", ACCEPT_TEXT);
+        request.setConfig(getConfig(DOCUMENT_TIMEOUT, DOCUMENT_TIMEOUT));
+        if(etag != null) request.addHeader("If-None-Match", etag);
+        if(lastModified != null) request.addHeader("If-Modified-Since", lastModified);
+        try(var permit = HostPermits.acquire(url); CloseableHttpResponse response = getClient().execute(request)){
+            if(response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED){
+                return new DocumentResponse(null, etag, lastModified);
+            }
+            final HttpEntity entity = getEntity(response);
+            final ContentType type = ContentType.get(entity);
+            if(type != null && !isHtml(type.getMimeType())){
+                throw new UnsupportedMimeTypeException("unhandled content type", type.getMimeType(), url);
+            }
+            final Charset charset = type == null? null : type.getCharset();
+            try(InputStream in = entity.getContent()){
+                final byte[] body = in.readNBytes(MAX_BODY_SIZE);
+                final Document document = Jsoup.parse(new ByteArrayInputStream(body), charset == null? null : charset.name(), url); //'null' charset: detect from document
+                return new DocumentResponse(document, getHeader(response, "ETag"), getHeader(response, "Last-Modified"));
+            }
+        }
+    }
+    
+    private static boolean isHtml(String mimeType){
+        return mimeType.equalsIgnoreCase("text/html") || mimeType.equalsIgnoreCase("application/xhtml+xml");
+    }
+    
+    private static String getHeader(CloseableHttpResponse response, String name){
+        final Header header = response.getFirstHeader(name);
+        return header == null? null : header.getValue();
+    }
+    
+    /**
+     * @return the authority of {@code url}, or {@code url} itself if malformed
+     */
+    public static String getHost(String url){
+        try {
+            return new URL(url).getAuthority();
+        } catch (MalformedURLException ex) {
+            return url;
+        }
+    }
+    
+    public static HttpGet createGet(String url) throws IOException{
+        try{
+            return new HttpGet(url);
+        }catch(IllegalArgumentException ex){ //malformed URI
+            throw new IOException(ex);
+        }
+    }
+    
+    public static RequestConfig getConfig(int connectionTimeout, int readTimeout){
+        return RequestConfig.custom()
+                .setConnectTimeout(connectionTimeout)
+                .setConnectionRequestTimeout(connectionTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+    }
+    
+    public static HttpEntity getEntity(CloseableHttpResponse response) throws IOException{
+        final int status = response.getStatusLine().getStatusCode();
+        if(status < 200 || status >= 300){
+            throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+        }
+        final HttpEntity entity = response.getEntity();
+        if(entity == null) throw new IOException("response without content");
+        return entity;
     }
     
+    /**
+     * Shared, pooled client. It must not be closed by callers; 
+     * close the response instead so the connection returns to the pool.
+     */
     public static CloseableHttpClient getClient(){
-        return HttpClientBuilder.create().setUserAgent(USER_AGENT).build();
+        return ClientHolder.CLIENT;
     }
 
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.awt.Dimension;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads image dimensions from the file header (JPEG, PNG, GIF, WebP and BMP),
+ * without decoding any pixels. Other formats, or headers that can't be parsed,
+ * fall back to the {@code ImageReader} metadata.
+ *
+ * References:
+ * https://www.w3.org/TR/PNG/#11IHDR
+ * https://www.w3.org/Graphics/GIF/spec-gif89a.txt
+ * https://developers.google.com/speed/webp/docs/riff_container
+ * https://en.wikipedia.org/wiki/BMP_file_format
+ * https://stackoverflow.com/questions/672916/how-to-get-image-height-and-width-using-java
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class ImageProber {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    private static final int HEADER_SIZE = 30; //bytes; enough for every format but JPEG
+    // </editor-fold>
+
+    private ImageProber(){}
+
+    public static Dimension getDimension(Path image) throws IOException{
+        try(var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(image)))){
+            final Dimension dimension = probeHeader(in);
+            if(dimension != null && dimension.width > 0 && dimension.height > 0) return dimension;
+        }catch(EOFException ex){} //truncated header
+        return readMetadata(image);
+    }
+
+    private static Dimension probeHeader(DataInputStream in) throws IOException{
+        final byte[] h = new byte[HEADER_SIZE];
+        in.mark(HEADER_SIZE);
+        final int read = in.readNBytes(h, 0, HEADER_SIZE);
+        if(read >= 2 && u8(h, 0) == 0xFF && u8(h, 1) == 0xD8){ //JPEG
+            in.reset();
+            in.skipBytes(2);
+            return probeJPEG(in);
+        }
+        if(read < HEADER_SIZE) return null;
+        if(u8(h, 0) == 0x89 && h[1] == 'P' && h[2] == 'N' && h[3] == 'G'){
+            return new Dimension(s32BE(h, 16), s32BE(h, 20)); //IHDR
+        }
+        if(h[0] == 'G' && h[1] == 'I' && h[2] == 'F'){
+            return new Dimension(u16LE(h, 6), u16LE(h, 8));
+        }
+        if(h[0] == 'B' && h[1] == 'M'){
+            if(s32LE(h, 14) == 12) return new Dimension(u16LE(h, 18), u16LE(h, 20)); //BITMAPCOREHEADER
+            return new Dimension(Math.abs(s32LE(h, 18)), Math.abs(s32LE(h, 22))); //negative height: top-down
+        }
+        if(h[0] == 'R' && h[1] == 'I' && h[2] == 'F' && h[3] == 'F' && h[8] == 'W' && h[9] == 'E' && h[10] == 'B' && h[11] == 'P'){
+            return probeWebP(h);
+        }
+        return null;
+    }
+
+    private static Dimension probeWebP(byte[] h){
+        if(h[12] != 'V' || h[13] != 'P' || h[14] != '8') return null;
+        switch(h[15]){
+            case ' ': //lossy
+                return new Dimension(u16LE(h, 26) & 0x3FFF, u16LE(h, 28) & 0x3FFF);
+            case 'L': //lossless
+                final int width = 1 + (((u8(h, 22) & 0x3F) << 8) | u8(h, 21));
+                final int height = 1 + (((u8(h, 24) & 0x0F) << 10) | (u8(h, 23) << 2) | ((u8(h, 22) & 0xC0) >> 6));
+                return new Dimension(width, height);
+            case 'X': //extended
+                return new Dimension(1 + u24LE(h, 24), 1 + u24LE(h, 27));
+            default:
+                return null;
+        }
+    }
+
+    private static Dimension probeJPEG(DataInputStream in) throws IOException{
+        while(true){
+            int marker = in.readUnsignedByte();
+            if(marker != 0xFF) return null; //not at a segment
+            while((marker = in.readUnsignedByte()) == 0xFF); //fill bytes
+            if(marker == 0xD9 || marker == 0xDA) return null; //end of image or start of scan, no frame found
+            if(marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) continue; //standalone markers
+            final int length = in.readUnsignedShort();
+            if(marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC){ //SOFn
+                in.skipBytes(1); //precision
+                final int height = in.readUnsignedShort();
+                final int width = in.readUnsignedShort();
+                return new Dimension(width, height);
+            }
+            skipFully(in, length-2);
+        }
+    }
+
+    private static Dimension readMetadata(Path image) throws IOException{
+        try(ImageInputStream stream = ImageIO.createImageInputStream(image.toFile())){
+            if(stream == null) throw new IOException("failed opening image stream");
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if(!readers.hasNext()) throw new IOException("unsupported image format");
+            final ImageReader reader = readers.next();
+            try{
+                reader.setInput(stream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            }finally{
+                reader.dispose();
+            }
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int amount) throws IOException{
+        while(amount > 0){
+            int skipped = in.skipBytes(amount);
+            if(skipped <= 0){
+                in.readUnsignedByte(); //throws at end of stream
+                skipped = 1;
+            }
+            amount -= skipped;
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc=" BYTES ">
+    private static int u8(byte[] b, int i){
+        return b[i] & 0xFF;
+    }
+
+    private static int u16LE(byte[] b, int i){
+        return u8(b, i) | u8(b, i+1) << 8;
+    }
+
+    private static int u24LE(byte[] b, int i){
+        return u16LE(b, i) | u8(b, i+2) << 16;
+    }
+
+    private static int s32LE(byte[] b, int i){
+        return u24LE(b, i) | u8(b, i+3) << 24;
+    }
+
+    private static int s32BE(byte[] b, int i){
+        return u8(b, i) << 24 | u8(b, i+1) << 16 | u8(b, i+2) << 8 | u8(b, i+3);
+    }
+    // </editor-fold>
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * On-disk cache of scraped pages: the {@code ETag} and {@code Last-Modified}
+ * validators of each page, and the image and link URLs extracted from it.
+ * Pages answered with {@code 304 Not Modified} reuse the extraction without
+ * downloading or parsing the document again.
+ * <br>
+ * Each page is a small text file named after its URL fingerprint, spread
+ * over subfolders by the first two hex digits. Entries are replaced on every
+ * full fetch; the cache folder can be deleted at any time.
+ *
+ * References:
+ * https://developer.mozilla.org/en-US/docs/Web/HTTP/Caching
+ * https://developer.mozilla.org/en-US/docs/Web/HTTP/Status/304
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class PageCache {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final Path DEFAULT_FOLDER = Paths.get("cache", "pages");
+    private static final String ENTRY_SUFFIX = ".page";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String IMAGE_PREFIX = "I ";
+    private static final String LINK_PREFIX = "L ";
+    private static final String EMPTY = "-"; //missing validator
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" ENTRY ">
+    public static class Entry{
+
+        public final String url;
+        public final String domain; //links were filtered by it
+        public final String etag; //'null' if not sent
+        public final String lastModified; //'null' if not sent
+        public final Set<String> images;
+        public final Set<String> links;
+
+        public Entry(String url, String domain, String etag, String lastModified, Set<String> images, Set<String> links) {
+            this.url = url;
+            this.domain = domain;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.images = images;
+            this.links = links;
+        }
+
+        public boolean hasValidators(){
+            return etag != null || lastModified != null;
+        }
+
+    }
+    // </editor-fold>
+
+    private final Path folder;
+
+    public PageCache(Path folder) {
+        this.folder = folder;
+    }
+
+    public PageCache() {
+        this(DEFAULT_FOLDER);
+    }
+
+    /**
+     * @return the cached entry of {@code url} extracted for {@code domain},
+     * or {@code null} if there is none
+     */
+    public Entry get(String url, String domain){
+        final Path file = getFile(url);
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
+            if(!url.equals(reader.readLine()) || !domain.equals(reader.readLine())) return null; //fingerprint collision or other site
+            final String etag = orNull(reader.readLine());
+            final String lastModified = orNull(reader.readLine());
+            final Set<String> images = new HashSet<>();
+            final Set<String> links = new HashSet<>();
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.startsWith(IMAGE_PREFIX)) images.add(line.substring(IMAGE_PREFIX.length()));
+                else if(line.startsWith(LINK_PREFIX)) links.add(line.substring(LINK_PREFIX.length()));
+            }
+            return new Entry(url, domain, etag, lastModified, images, links);
+        }catch(IOException ex){ //missing or unreadable: fetched again
+            return null;
+        }
+    }
+
+    public void put(Entry entry){
+        if(!entry.hasValidators()) return; //can't be revalidated
+        final Path file = getFile(entry.url);
+        final Path temp = file.resolveSibling(file.getFileName()+TEMP_SUFFIX);
+        try{
+            Files.createDirectories(file.getParent());
+            try(BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)){
+                writeLine(writer, entry.url);
+                writeLine(writer, entry.domain);
+                writeLine(writer, orEmpty(entry.etag));
+                writeLine(writer, orEmpty(entry.lastModified));
+                for(String image : entry.images) writeLine(writer, IMAGE_PREFIX+image);
+                for(String link : entry.links) writeLine(writer, LINK_PREFIX+link);
+            }
+            try{
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }catch(AtomicMoveNotSupportedException ex){
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }catch(IOException ex){ //not cached: fetched again next time
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ex1) {}
+        }
+    }
+
+    private Path getFile(String url){
+        final MessageDigest md = HashIndex.createDigest();
+        md.update(url.getBytes(StandardCharsets.UTF_8));
+        final String name = String.format("%016x", HashIndex.toLong(md));
+        return folder.resolve(name.substring(0, 2)).resolve(name+ENTRY_SUFFIX);
+    }
+
+    private static void writeLine(BufferedWriter writer, String value) throws IOException{
+        writer.write(value.replace('\n', ' ').replace('\r', ' '));
+        writer.newLine();
+    }
+
+    private static String orEmpty(String value){
+        return value == null || value.isBlank()? EMPTY : value;
+    }
+
+    private static String orNull(String value){
+        return value == null || EMPTY.equals(value)? null : value;
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import rubensandreoli.imagedownloader.tasks.Task;
+
+/**
+ * Collects progress from running tasks without blocking them, to be drained
+ * in frames at a fixed rate by the consumer; the UI then does one update per
+ * frame, however many downloads finished in between.
+ * <br>
+ * A frame carries the latest counters of each task that progressed, and only
+ * the last {@code maxLogs} logs, since older ones wouldn't stay on screen
+ * anyway; dropped logs are never formatted.
+ *
+ * References:
+ * https://en.wikipedia.org/wiki/Frame_rate
+ * https://docs.oracle.com/javase/tutorial/uiswing/misc/timer.html
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class ProgressBus {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final int DEFAULT_FRAME_RATE = 10; //Hz
+    public static final int MIN_FRAME_RATE = 1; //Hz
+    public static final int MAX_FRAME_RATE = 60; //Hz
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" COUNTER ">
+    public static class Counter{
+
+        private final int number;
+        private final int workload;
+
+        private Counter(int number, int workload) {
+            this.number = number;
+            this.workload = workload;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public int getWorkload() {
+            return workload;
+        }
+
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" FRAME ">
+    public static class Frame{
+
+        private final List<ProgressLog> logs;
+        private final Map<Task, Counter> counters;
+        private final int dropped;
+        private final boolean started;
+
+        private Frame(List<ProgressLog> logs, Map<Task, Counter> counters, int dropped, boolean started) {
+            this.logs = logs;
+            this.counters = counters;
+            this.dropped = dropped;
+            this.started = started;
+        }
+
+        /**
+         * @return the kept logs, oldest first
+         */
+        public List<ProgressLog> getLogs() {
+            return logs;
+        }
+
+        /**
+         * @return latest counters of the tasks that progressed in the frame
+         */
+        public Map<Task, Counter> getCounters() {
+            return counters;
+        }
+
+        /**
+         * @return number of logs left out of the frame
+         */
+        public int getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return whether a task reported its first progress in the frame
+         */
+        public boolean hasStarted() {
+            return started;
+        }
+
+        public boolean isEmpty(){
+            return counters.isEmpty();
+        }
+
+    }
+    // </editor-fold>
+
+    private static class Event{
+
+        private final Task task;
+        private final ProgressLog log;
+
+        private Event(Task task, ProgressLog log) {
+            this.task = task;
+            this.log = log;
+        }
+
+    }
+
+    private final int maxLogs;
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+
+    public ProgressBus(int maxLogs) {
+        if(maxLogs < 0) throw new IllegalArgumentException(maxLogs+" < 0");
+        this.maxLogs = maxLogs;
+    }
+
+    /**
+     * @return a listener posting the progress of {@code task} to the bus;
+     * safe to be called from any thread
+     */
+    public ProgressListener listener(Task task){
+        return log -> events.offer(new Event(task, log));
+    }
+
+    /**
+     * Takes every event posted since the last call.
+     */
+    public Frame drain(){
+        final ArrayDeque<ProgressLog> logs = new ArrayDeque<>(maxLogs);
+        final Map<Task, ProgressLog> latest = new HashMap<>();
+        int dropped = 0;
+        boolean started = false;
+        Event event;
+        while((event = events.poll()) != null){
+            final ProgressLog log = event.log;
+            latest.merge(event.task, log, (o, n) -> n.getNumber() >= o.getNumber()? n : o); //posted concurrently, may arrive out of order
+            if(log.isFirst()) started = true;
+            if(maxLogs == 0){
+                dropped++;
+                continue;
+            }
+            if(logs.size() == maxLogs){
+                logs.removeFirst();
+                dropped++;
+            }
+            logs.addLast(log);
+        }
+        final Map<Task, Counter> counters = new HashMap<>(latest.size()*2);
+        latest.forEach((t, l) -> counters.put(t, new Counter(l.getNumber(), l.getWorkload())));
+        return new Frame(logs.isEmpty()? Collections.emptyList() : List.copyOf(logs), counters, dropped, started);
+    }
+
+}
@@ -1,6 +1,8 @@
 package rubensandreoli.imagedownloader.tasks.support;
 
+import java.util.ArrayList;
 import java.util.IllegalFormatException;
+import java.util.List;
 import rubensandreoli.commons.others.Level;
 
 /** 
@@ -17,7 +19,26 @@ public class ProgressLog {
 
     private final int number;
     private final int workload;
-    private final StringBuilder log = new StringBuilder();
+    private final List<Entry> entries = new ArrayList<>(2);
+    private String messages; //formatted on first read
+
+    // <editor-fold defaultstate="collapsed" desc=" ENTRY "> 
+    private static class Entry{
+        
+        private final Level level; //'null' if none
+        private final String message;
+        private final Object[] args;
+        private final boolean line;
+
+        private Entry(Level level, String message, Object[] args, boolean line) {
+            this.level = level;
+            this.message = message;
+            this.args = args;
+            this.line = line;
+        }
+        
+    }
+    // </editor-fold>
 
     public ProgressLog(int number, int workload){
         this.number = number;
@@ -25,38 +46,53 @@ public class ProgressLog {
     }
     
     // <editor-fold defaultstate="collapsed" desc=" SETTERS "> 
+    /**
+     * The message is only formatted when first read, so {@code args} must not
+     * change after being appended.
+     */
     public ProgressLog append(String message, Object...args){
-        if(args.length != 0){
-            try{
-                message = String.format(message, args);
-            } catch (IllegalFormatException ex){
-                System.err.println("failed appending log message "+ex.getMessage()); //don't log, development error
-            }
-        }
-        log.append(message);
-        return this;
+        return add(null, message, args, false);
     }
     
     public ProgressLog append(Level level, String message, Object...args){
-        log.append(level).append(LEVEL_DELIMITER);
-        return append(message, args);
+        return add(level, message, args, false);
     }
     
     public ProgressLog appendLine(String message, Object...args){
-        append(message, args);
-        log.append("\r\n");
-        return this;
+        return add(null, message, args, true);
     }
  
     public ProgressLog appendLine(Level level, String message, Object...args){
-        log.append(level).append(LEVEL_DELIMITER);
-        return appendLine(message, args);
+        return add(level, message, args, true);
+    }
+    
+    private ProgressLog add(Level level, String message, Object[] args, boolean line){
+        entries.add(new Entry(level, message, args, line));
+        messages = null;
+        return this;
     }
     // </editor-fold>
     
     // <editor-fold defaultstate="collapsed" desc=" GETTERS "> 
     public String getMessages(){
-        return log.toString();
+        if(messages == null){
+            final StringBuilder log = new StringBuilder();
+            for(Entry entry : entries){
+                if(entry.level != null) log.append(entry.level).append(LEVEL_DELIMITER);
+                String message = entry.message;
+                if(entry.args.length != 0){
+                    try{
+                        message = String.format(message, entry.args);
+                    } catch (IllegalFormatException ex){
+                        System.err.println("failed appending log message "+ex.getMessage()); //don't log, development error
+                    }
+                }
+                log.append(message);
+                if(entry.line) log.append("\r\n");
+            }
+            messages = log.toString();
+        }
+        return messages;
     }
 
     public int getNumber(){
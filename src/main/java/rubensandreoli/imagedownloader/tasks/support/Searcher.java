@@ -16,8 +16,7 @@
  */
 package rubensandreoli.imagedownloader.tasks.support;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
+import java.awt.Dimension;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -25,13 +24,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.imageio.ImageIO;
 import org.apache.http.Header;
-import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.mime.MultipartEntity;
-import org.apache.http.entity.mime.content.InputStreamBody;
-import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.util.EntityUtils;
+import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import rubensandreoli.commons.others.Level;
 import rubensandreoli.commons.others.Logger;
@@ -67,7 +66,6 @@ public class Searcher {
         
         //----------LOAD----------//
         private ImageInfo sourceInfo;
-        private byte[] sourceBytes;
         
         //----------UPLOAD----------//
         private String responseLink;
@@ -82,12 +80,10 @@ public class Searcher {
         }
         
         public void load() throws LoadException{
-            try(var imageStream = new BufferedInputStream(Files.newInputStream(image))){
-                sourceBytes = imageStream.readAllBytes();
-                final var bufferedImage = ImageIO.read(new ByteArrayInputStream(sourceBytes));
-                if(bufferedImage == null) throw new IOException("failed reading image from file");
-                sourceInfo = new ImageInfo(image.toString(), bufferedImage.getWidth(), bufferedImage.getHeight());
-                sourceInfo.setSize(sourceBytes.length);
+            try{
+                final Dimension dimension = ImageProber.getDimension(image); //header only, no decoding
+                sourceInfo = new ImageInfo(image.toString(), dimension.width, dimension.height);
+                sourceInfo.setSize(Files.size(image));
             } catch (IOException ex) {
                 throw new LoadException(ex);
             }
@@ -96,16 +92,15 @@ public class Searcher {
         public void upload() throws UploadException{
             start = System.currentTimeMillis();        
             final MultipartEntity entity = new MultipartEntity(); 
-            entity.addPart("encoded_image", new InputStreamBody(new ByteArrayInputStream(sourceBytes), sourceInfo.getName()));
+            entity.addPart("encoded_image", new FileBody(image.toFile())); //streamed from disk, with known length
             final HttpPost post = new HttpPost(GOOGLE_LINK);
             post.setEntity(entity); 
 
-            try(CloseableHttpClient client = HttpUtils.getClient()){
-                final HttpResponse response = client.execute(post);
-                sourceBytes = null; //free memory
+            try(var permit = HostPermits.acquire(GOOGLE_LINK); CloseableHttpResponse response = HttpUtils.getClient().execute(post)){
                 final Header header = response.getFirstHeader("location");
                 if(header == null) throw new UploadException("location header not foound");
                 responseLink = header.getValue();
+                EntityUtils.consume(response.getEntity()); //so the connection can be reused
             } catch (IOException ex) {
                 throw new UploadException(ex);
             }
@@ -125,20 +120,7 @@ public class Searcher {
 
                 //FIND IMAGES
                 if(similarLink != null){
-                    HttpUtils.getDocument(similarLink).getElementsByTag("script").forEach(s -> {
-                        final String script = s.data();
-                        if(script.startsWith(RESPONSE_SCRIPT_PREFIX)){
-                            final Matcher m = IMAGE_LINK_PATTERN.matcher(script);
-                            while(m.find()) {
-                                final String[] info = m.group(0) //first group of the pattern regex
-                                        .replaceAll(IMAGE_LINK_CLEAR_REGEX, "")
-                                        .split(IMAGE_LINK_DELIMITER);
-                                if(info.length == 3){ //contains width and height information
-                                    googleImages.add(new ImageInfo(info[0], info[2], info[1]));
-                                }
-                            }
-                        }
-                    });
+                    parseResults(HttpUtils.getDocument(similarLink), googleImages);
                 }
             }catch(IOException ex){
                 throw new SearchException(ex);
@@ -146,6 +128,10 @@ public class Searcher {
                 duration = System.currentTimeMillis() - start;
             }
         }
+        
+        public SearchResult getResult(){
+            return new SearchResult(sourceInfo, duration, googleImages);
+        }
 
     }
     // </editor-fold>
@@ -181,11 +167,42 @@ public class Searcher {
     }
 
     public SearchResult search(Path image) throws LoadException, UploadException, SearchException{
-        final Search search = new Search(image);
+        final Search search = prepare(image);
         search.load();
         search.upload();
         search.search();
-        return new SearchResult(search.sourceInfo, search.duration, search.googleImages);
+        return search.getResult();
+    }
+    
+    /**
+     * Reads the similar images listed in the scripts of a results page.
+     */
+    public static void parseResults(Document page, List<ImageInfo> images){
+        page.getElementsByTag("script").forEach(s -> {
+            final String script = s.data();
+            if(script.startsWith(RESPONSE_SCRIPT_PREFIX)) parseScript(script, images);
+        });
+    }
+    
+    public static void parseScript(String script, List<ImageInfo> images){
+        final Matcher m = IMAGE_LINK_PATTERN.matcher(script);
+        while(m.find()) {
+            final String[] info = m.group(0) //first group of the pattern regex
+                    .replaceAll(IMAGE_LINK_CLEAR_REGEX, "")
+                    .split(IMAGE_LINK_DELIMITER);
+            if(info.length == 3){ //contains width and height information
+                images.add(new ImageInfo(info[0], info[2], info[1]));
+            }
+        }
+    }
+    
+    /**
+     * Creates a search whose steps ({@code load}, {@code upload} and 
+     * {@code search}) can be run separately, and by different threads, 
+     * as long as they are run in that order.
+     */
+    public Search prepare(Path image){
+        return new Search(image);
     }
     
 }
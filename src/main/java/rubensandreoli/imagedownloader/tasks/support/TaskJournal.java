@@ -16,81 +16,128 @@
  */
 package rubensandreoli.imagedownloader.tasks.support;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import rubensandreoli.commons.others.Level;
 import rubensandreoli.imagedownloader.tasks.Task.State;
 
+/**
+ * State, counters and logs of a task, updated from any of its threads
+ * without locking. Progress and workload share one {@code long}, so every
+ * log and snapshot sees a pair that existed at some instant. Successes are
+ * only added up, on a {@code LongAdder}; fails are reset, so they are kept
+ * in a plain atomic.
+ * <br>
+ * The current log is kept per thread: each worker builds its own, and
+ * reporting it hands it to the listener and clears it.
+ *
+ * References:
+ * https://docs.oracle.com/en/java/javase/14/docs/api/java.base/java/util/concurrent/atomic/LongAdder.html
+ * https://en.wikipedia.org/wiki/Compare-and-swap
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
 public class TaskJournal{
     
     // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS "> 
     public static final String TITLE_LOG_MASK = "---|%s|---"; //status
+    private static final long PROGRESS_MASK = 0xFFFFFFFFL; //low half; workload in the high half
+    private static final long WORKLOAD_UNIT = 1L << 32;
     // </editor-fold>
     
-    private ProgressListener listener;
-    private volatile State state = State.WAITING;
-    private int progress = 0, workload = 0;
-    private int successes = 0, fails = 0;
-    private ProgressLog currentLog;
-    private boolean silent;
+    // <editor-fold defaultstate="collapsed" desc=" SNAPSHOT "> 
+    public static class Snapshot{
+        
+        public final State state;
+        public final int progress;
+        public final int workload;
+        public final int successes;
+        public final int fails;
+
+        private Snapshot(State state, long counters, int successes, int fails) {
+            this.state = state;
+            this.progress = progress(counters);
+            this.workload = workload(counters);
+            this.successes = successes;
+            this.fails = fails;
+        }
+        
+    }
+    // </editor-fold>
+    
+    private volatile ProgressListener listener;
+    private final AtomicReference<State> state = new AtomicReference<>(State.WAITING);
+    private final AtomicLong counters = new AtomicLong(); //workload and progress
+    private final LongAdder successes = new LongAdder();
+    private final AtomicInteger fails = new AtomicInteger();
+    private final ThreadLocal<ProgressLog> currentLog = new ThreadLocal<>();
+    private volatile boolean silent;
  
     //----------STATE----------//
     public boolean start(){
-        if(isWaiting()){
-            state = State.RUNNING;
-            return true;
-        }
-        return false;
+        return state.compareAndSet(State.WAITING, State.RUNNING);
     }
     
     public boolean interrupt(){
-        if(isRunning()){
-            state = State.INTERRUPTED;
-            return true;
-        }
-        return false;
+        return state.compareAndSet(State.RUNNING, State.INTERRUPTED);
     }
     
     public boolean fail(int threashold){
-        final boolean failed = fails > threashold;
-        if(failed) state = State.FAILED;
-        return failed;
+        if(fails.get() <= threashold) return false;
+        state.compareAndSet(State.RUNNING, State.FAILED);
+        return true;
     }
     
     //----------LOGGING----------//
+    /**
+     * @return the log started by the calling thread, or {@code null} if it
+     * has none open
+     */
     public ProgressLog getCurrentLog(){
-        return currentLog;
+        return currentLog.get();
     }
     
     public ProgressLog startNewLog(boolean progressed){
-        currentLog = new ProgressLog(progressed? increaseProgress():progress, workload);
-        return currentLog;
+        final ProgressLog log = createLog(progressed);
+        currentLog.set(log);
+        return log;
     }
     
     public void reportCurrentLog(){
-        if(currentLog != null) reportLog(currentLog);
+        final ProgressLog log = currentLog.get();
+        if(log == null) return;
+        currentLog.remove();
+        reportLog(log);
     }
     
     public void reportLog(ProgressLog log){
-        if(listener != null && !silent) listener.progressed(log);
+        final ProgressListener l = listener;
+        if(l != null && !silent) l.progressed(log);
     }
     
     public void reportState(){
-        final var log = new ProgressLog(progress, workload);
-        log.appendLine(String.format(TITLE_LOG_MASK, state.toString()));
-        reportLog(log);
+        reportTitle(state.get().toString());
     }
 
     public void reportTitle(String title){
-        final var log = new ProgressLog(progress, workload);
+        final var log = createLog(false);
         log.appendLine(String.format(TITLE_LOG_MASK, title));
         reportLog(log);
     }
     
     public void report(Level level, boolean progressed, String message, Object...args){
-        final var log = new ProgressLog(progressed? increaseProgress():progress, workload);
+        final var log = createLog(progressed);
         if(level != null) log.appendLine(level, message, args);
         else log.appendLine(message, args);
         reportLog(log);
     }
+    
+    private ProgressLog createLog(boolean progressed){
+        final long c = progressed? counters.incrementAndGet() : counters.get();
+        return new ProgressLog(progress(c), workload(c));
+    }
 
     // <editor-fold defaultstate="collapsed" desc=" SETTERS "> 
     public void setProgressListener(ProgressListener listener){
@@ -98,59 +145,60 @@ public class TaskJournal{
     }
 
     public void setProgress(int progress){
-        this.progress = progress;
+        counters.updateAndGet(c -> (c & ~PROGRESS_MASK) | (progress & PROGRESS_MASK));
     }
         
     public int increaseProgress(){
-        return ++progress;
+        return progress(counters.incrementAndGet());
     }
     
     public int addProgress(int amount){
-        return progress += amount;
+        return progress(counters.addAndGet(amount));
     }
 
     public void setWorkload(int workload){
-        this.workload = workload;
+        counters.updateAndGet(c -> (c & PROGRESS_MASK) | (workload * WORKLOAD_UNIT));
     }
     
     public int increaseWorkload(){
-        return ++workload;
+        return workload(counters.addAndGet(WORKLOAD_UNIT));
     }
     
     public int addWorkload(int amount) {
-        return workload += amount;
+        return workload(counters.addAndGet(amount * WORKLOAD_UNIT));
     }
 
     public void setState(State state){
-        this.state = state;
+        this.state.set(state);
     }
 
     public void setSuccesses(int successes){
-        this.successes = successes;
+        this.successes.reset(); //before the task runs
+        this.successes.add(successes);
     }
     
-    public int increaseSuccesses(){
-        return ++successes;
+    public void increaseSuccesses(){
+        successes.increment();
     }
     
-    public int addSuccesses(int amount){
-        return successes += amount;
+    public void addSuccesses(int amount){
+        successes.add(amount);
     }
 
     public void setFails(int fails){
-        this.fails = fails;
+        this.fails.set(fails);
     }
     
     public int increaseFails(){
-        return ++fails;
+        return fails.incrementAndGet();
     }
     
     public int addFails(int amount){
-        return fails += amount;
+        return fails.addAndGet(amount);
     }
     
     public void resetFails(){
-        fails = 0;
+        fails.set(0);
     }
 
     public void setSilent(boolean b) {
@@ -159,36 +207,48 @@ public class TaskJournal{
     // </editor-fold>
     
     // <editor-fold defaultstate="collapsed" desc=" GETTERS "> 
+    public Snapshot getSnapshot(){
+        return new Snapshot(state.get(), counters.get(), getSuccesses(), fails.get());
+    }
+    
     public int getProgress(){
-        return progress;
+        return progress(counters.get());
     }
     
     public int getWorkload(){
-        return workload;
+        return workload(counters.get());
     }
 
     public State getStatus(){
-        return state;
+        return state.get();
     }
     
     public boolean isInterrupted(){
-        return state == State.INTERRUPTED;
+        return state.get() == State.INTERRUPTED;
     }
 
     public boolean isWaiting(){
-        return state == State.WAITING;
+        return state.get() == State.WAITING;
     }
     
     public boolean isRunning(){
-        return state == State.RUNNING;
+        return state.get() == State.RUNNING;
     }
 
     public int getSuccesses() {
-        return successes;
+        return successes.intValue();
     }
 
     public int getFails() {
-        return fails;
+        return fails.get();
+    }
+    
+    private static int progress(long counters){
+        return (int)(counters & PROGRESS_MASK);
+    }
+    
+    private static int workload(long counters){
+        return (int)(counters >>> 32);
     }
     // </editor-fold>
     
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import rubensandreoli.imagedownloader.tasks.Task;
+
+/**
+ * Runs queued tasks concurrently, up to {@code maxRunning} at a time and
+ * {@code maxPerHost} for the same host. Tasks start in the order they were
+ * submitted, but a task whose host is busy is passed over by the ones
+ * behind it, so a slow site doesn't hold back unrelated tasks.
+ *
+ * References:
+ * https://en.wikipedia.org/wiki/Head-of-line_blocking
+ * https://docs.oracle.com/javase/tutorial/essential/concurrency/guardmeth.html
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class TaskScheduler {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final int DEFAULT_MAX_RUNNING = 3;
+    public static final int MIN_MAX_RUNNING = 1;
+    public static final int DEFAULT_MAX_PER_HOST = 1;
+    public static final int MIN_MAX_PER_HOST = 1;
+
+    private static final String THREAD_NAME_MASK = "task-%d"; //number
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" LISTENER ">
+    public static interface SchedulerListener{
+        void taskStarted(Task task);
+        void taskFinished(Task task);
+    }
+    // </editor-fold>
+
+    private final int maxRunning;
+    private final int maxPerHost;
+    private final ExecutorService executor;
+    private final LinkedList<Task> waiting = new LinkedList<>();
+    private final Set<Task> running = new HashSet<>();
+    private final Map<String, Integer> hosts = new HashMap<>(); //running tasks per host
+    private SchedulerListener listener;
+    private boolean closed;
+    private boolean cancelled;
+
+    public TaskScheduler(int maxRunning, int maxPerHost) {
+        if(maxRunning < MIN_MAX_RUNNING) throw new IllegalArgumentException(maxRunning+" < "+MIN_MAX_RUNNING);
+        if(maxPerHost < MIN_MAX_PER_HOST) throw new IllegalArgumentException(maxPerHost+" < "+MIN_MAX_PER_HOST);
+        this.maxRunning = maxRunning;
+        this.maxPerHost = maxPerHost;
+        final ExecutorService virtual = VirtualThreads.newExecutor();
+        executor = virtual != null? virtual : Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, String.format(THREAD_NAME_MASK, THREAD_COUNT.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return {@code false} if the scheduler was already closed
+     */
+    public synchronized boolean submit(Task task){
+        if(closed) return false;
+        waiting.add(task);
+        dispatch();
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the task was waiting and won't be started
+     */
+    public synchronized boolean remove(Task task){
+        return waiting.remove(task);
+    }
+
+    public synchronized boolean isRunning(Task task){
+        return running.contains(task);
+    }
+
+    /**
+     * Blocks until every submitted task has finished, then refuses new ones.
+     */
+    public synchronized void awaitAndClose() throws InterruptedException{
+        while(!waiting.isEmpty() || !running.isEmpty()) wait();
+        closed = true;
+        executor.shutdown();
+    }
+    
+    /**
+     * Like {@link #awaitAndClose()}, but gives up after {@code timeout} ms,
+     * so the caller can check for other reasons to stop waiting.
+     * 
+     * @return {@code true} if every task finished and the scheduler was closed
+     */
+    public synchronized boolean awaitAndClose(long timeout) throws InterruptedException{
+        final long deadline = System.currentTimeMillis()+timeout;
+        long remaining = timeout;
+        while(!waiting.isEmpty() || !running.isEmpty()){
+            if(remaining <= 0) return false;
+            wait(remaining);
+            remaining = deadline-System.currentTimeMillis();
+        }
+        closed = true;
+        executor.shutdown();
+        return true;
+    }
+
+    /**
+     * Drops waiting tasks and interrupts the running ones.
+     */
+    public void cancel(){
+        final List<Task> interrupted;
+        synchronized(this){
+            closed = cancelled = true;
+            waiting.clear();
+            interrupted = new ArrayList<>(running);
+            notifyAll();
+        }
+        for(Task task : interrupted){
+            while(!task.interrupt() && task.getStatus() == Task.State.WAITING && isRunning(task)){
+                Thread.onSpinWait(); //dispatched, but not started yet
+            }
+        }
+        executor.shutdown(); //running tasks end on their own, after the interrupt
+    }
+
+    private void dispatch(){ //holding lock
+        final Iterator<Task> i = waiting.iterator();
+        while(running.size() < maxRunning && i.hasNext()){
+            final Task task = i.next();
+            final String host = task.getHost();
+            if(host != null && hosts.getOrDefault(host, 0) >= maxPerHost) continue;
+            i.remove();
+            running.add(task);
+            if(host != null) hosts.merge(host, 1, Integer::sum);
+            executor.execute(() -> run(task));
+        }
+    }
+
+    private void run(Task task){
+        final SchedulerListener l = listener;
+        boolean started = false; //cancelled before starting: not reported as finished
+        try{
+            synchronized(this){
+                if(cancelled) return;
+            }
+            started = true;
+            if(l != null) l.taskStarted(task);
+            task.perform();
+        }finally{
+            if(l != null && started) l.taskFinished(task); //before waiters are released
+            synchronized(this){
+                running.remove(task);
+                final String host = task.getHost();
+                if(host != null) hosts.computeIfPresent(host, (h, n) -> n == 1? null : n-1);
+                if(!closed) dispatch();
+                notifyAll();
+            }
+        }
+    }
+
+    public void setListener(SchedulerListener listener) {
+        this.listener = listener;
+    }
+
+}
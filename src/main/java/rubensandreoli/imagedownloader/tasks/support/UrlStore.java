@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only log of the URLs successfully downloaded to a folder, with the
+ * file size and the {@code ETag} and {@code Last-Modified} validators sent by
+ * the server. In memory only a 64-bit fingerprint of each URL and the offset
+ * of its latest record are kept; records are read back from the log, and
+ * the URL compared, only for fingerprints that match.
+ *
+ * References:
+ * https://developer.mozilla.org/en-US/docs/Web/HTTP/Conditional_requests
+ * https://en.wikipedia.org/wiki/Log-structured_file_system
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class UrlStore {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final String STORE_FILENAME = ".imagedownloader.urls";
+    private static final char SEPARATOR = '\t';
+    private static final char END = '\n';
+    private static final String EMPTY = "-"; //missing validator
+    private static final long FORGOTTEN = -1; //size of records that undo earlier ones
+    private static final int BUFFER_SIZE = 8192; //bytes
+    private static final int RECORD_BUFFER_SIZE = 512; //bytes; most records fit
+    private static final Map<Path, UrlStore> STORES = new ConcurrentHashMap<>();
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" RECORD ">
+    public static class Record{
+
+        public final String url;
+        public final long size;
+        public final String etag; //'null' if not sent
+        public final String lastModified; //'null' if not sent
+
+        private Record(String url){ //forgotten
+            this(url, FORGOTTEN, null, null);
+        }
+
+        public Record(String url, long size, String etag, String lastModified) {
+            this.url = url;
+            this.size = size;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        private String format(){
+            return url+SEPARATOR+size+SEPARATOR+orEmpty(etag)+SEPARATOR+orEmpty(lastModified)+END;
+        }
+
+        private static Record parse(String line){
+            final String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+            if(fields.length != 4) return null; //torn write
+            try{
+                return new Record(fields[0], Long.parseLong(fields[1]), orNull(fields[2]), orNull(fields[3]));
+            }catch(NumberFormatException ex){
+                return null;
+            }
+        }
+
+        private static String orEmpty(String value){
+            return value == null || value.isBlank()? EMPTY : value.replace(SEPARATOR, ' ').replace(END, ' ');
+        }
+
+        private static String orNull(String value){
+            return EMPTY.equals(value)? null : value;
+        }
+
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc=" OFFSET MAP ">
+    private static class OffsetMap{ //linear probing; fingerprint '0' marks empty slots
+
+        private static final int INITIAL_CAPACITY = 1024; //power of 2
+        private static final float LOAD_FACTOR = 0.5f;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] offsets = new long[INITIAL_CAPACITY];
+        private int size;
+
+        private void put(long key, long offset){
+            if(size+1 > keys.length*LOAD_FACTOR) resize();
+            final int mask = keys.length-1;
+            int i = slot(key, mask);
+            while(keys[i] != 0 && keys[i] != key) i = (i+1) & mask;
+            if(keys[i] == 0) size++;
+            keys[i] = key;
+            offsets[i] = offset; //latest record wins
+        }
+
+        private long get(long key){
+            final int mask = keys.length-1;
+            for(int i = slot(key, mask); keys[i] != 0; i = (i+1) & mask){
+                if(keys[i] == key) return offsets[i];
+            }
+            return -1;
+        }
+
+        private void resize(){
+            final long[] oldKeys = keys, oldOffsets = offsets;
+            keys = new long[oldKeys.length*2];
+            offsets = new long[oldKeys.length*2];
+            size = 0;
+            for(int i=0; i<oldKeys.length; i++){
+                if(oldKeys[i] != 0) put(oldKeys[i], oldOffsets[i]);
+            }
+        }
+
+        private static int slot(long key, int mask){
+            return (int)(key ^ (key >>> 32)) & mask;
+        }
+
+    }
+    // </editor-fold>
+
+    private final Path file;
+    private final OffsetMap records = new OffsetMap();
+    private long length; //bytes; offset of the next record
+    private boolean loaded;
+
+    private UrlStore(Path folder) {
+        file = folder.resolve(STORE_FILENAME);
+    }
+
+    public static UrlStore of(Path folder){
+        return STORES.computeIfAbsent(folder.toAbsolutePath().normalize(), UrlStore::new);
+    }
+
+    /**
+     * @return the latest record of {@code url}, or {@code null} if it was
+     * never downloaded to this folder
+     */
+    public synchronized Record get(String url) throws IOException{
+        load();
+        final long offset = records.get(fingerprint(url));
+        if(offset < 0) return null;
+        final Record record = read(offset);
+        if(record == null || !record.url.equals(url)) return null; //fingerprint collision
+        return record.size == FORGOTTEN? null : record;
+    }
+
+    public synchronized void add(Record record) throws IOException{
+        load();
+        final byte[] bytes = record.format().getBytes(StandardCharsets.UTF_8);
+        Files.write(file, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        records.put(fingerprint(record.url), length);
+        length += bytes.length;
+    }
+    
+    /**
+     * Forgets {@code url}, whose file was deleted after all, so it is
+     * downloaded again next time. The log being append-only, a record
+     * marking it forgotten is added.
+     */
+    public synchronized void remove(String url) throws IOException{
+        if(get(url) != null) add(new Record(url));
+    }
+
+    private void load() throws IOException{
+        if(loaded) return;
+        if(Files.isRegularFile(file)){
+            try(InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)){
+                final ByteArrayOutputStream line = new ByteArrayOutputStream();
+                long offset = 0, start = 0;
+                int b;
+                while((b = in.read()) != -1){
+                    offset++;
+                    if(b != END){
+                        line.write(b);
+                        continue;
+                    }
+                    final Record record = Record.parse(line.toString(StandardCharsets.UTF_8));
+                    if(record != null) records.put(fingerprint(record.url), start);
+                    line.reset();
+                    start = offset;
+                }
+                length = start; //a torn last record is overwritten by the next one
+            }
+            if(length < Files.size(file)){
+                try(RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")){
+                    raf.setLength(length);
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    private Record read(long offset) throws IOException{
+        try(RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")){
+            raf.seek(offset);
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[RECORD_BUFFER_SIZE];
+            int read;
+            while((read = raf.read(buffer)) != -1){
+                for(int i=0; i<read; i++){
+                    if(buffer[i] == END){
+                        line.write(buffer, 0, i);
+                        return Record.parse(line.toString(StandardCharsets.UTF_8));
+                    }
+                }
+                line.write(buffer, 0, read);
+            }
+            return null; //torn write
+        }
+    }
+
+    private static long fingerprint(String url){
+        final MessageDigest md = HashIndex.createDigest();
+        md.update(url.getBytes(StandardCharsets.UTF_8));
+        return HashIndex.toLong(md);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 Rubens A. Andreoli Jr.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rubensandreoli.imagedownloader.tasks.support;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Optional execution mode where downloads, page fetches and searches run
+ * each on its own virtual thread, on a JDK that has them. Blocked virtual
+ * threads are parked off their carrier, so thousands of slow responses cost
+ * little memory; concurrency is then capped by semaphores, in the pools and
+ * in {@code HostPermits}, instead of by the number of threads.
+ * <br>
+ * The JDK method is looked up by reflection, so the program still builds
+ * and runs on older JDKs, where the mode is simply unavailable.
+ *
+ * References:
+ * https://openjdk.org/jeps/444
+ * https://docs.oracle.com/en/java/javase/21/core/virtual-threads.html
+ *
+ * @author Rubens A. Andreoli Jr.
+ */
+public class VirtualThreads {
+
+    // <editor-fold defaultstate="collapsed" desc=" STATIC FIELDS ">
+    public static final boolean DEFAULT_ENABLED = false;
+    private static final int MIN_FEATURE_VERSION = 21; //JDK 19 and 20 have them as a preview
+    private static final Method NEW_EXECUTOR; //'null' if unsupported
+    static{
+        Method method = null;
+        if(Runtime.version().feature() >= MIN_FEATURE_VERSION){
+            try {
+                method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                ((ExecutorService) method.invoke(null)).shutdown(); //probe: fails if not usable
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                method = null;
+            }
+        }
+        NEW_EXECUTOR = method;
+    }
+    // </editor-fold>
+
+    private static volatile boolean enabled = DEFAULT_ENABLED;
+
+    private VirtualThreads(){}
+
+    public static boolean isSupported(){
+        return NEW_EXECUTOR != null;
+    }
+
+    public static boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Ignored if the JDK doesn't support virtual threads. Only executors
+     * created afterwards are affected.
+     *
+     * @return whether the mode is enabled
+     */
+    public static boolean setEnabled(boolean enabled){
+        VirtualThreads.enabled = enabled && isSupported();
+        return VirtualThreads.enabled;
+    }
+
+    /**
+     * @return an executor starting a virtual thread per job, or {@code null}
+     * if the mode isn't enabled
+     */
+    public static ExecutorService newExecutor(){
+        if(!enabled) return null;
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException ex) { //public static method without checked exceptions
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return {@code threads} workers: virtual if the mode is enabled,
+     * platform otherwise
+     */
+    public static ExecutorService newFixedThreadPool(int threads){
+        final ExecutorService executor = newExecutor();
+        return executor != null? executor : Executors.newFixedThreadPool(threads);
+    }
+
+}